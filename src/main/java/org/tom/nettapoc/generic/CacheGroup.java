@@ -0,0 +1,145 @@
+package org.tom.nettapoc.generic;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Atomic writes and consistent reads across several {@link VersionedCache} instances.
+ * <p>
+ * A transaction write-locks only the caches it touches, always in the same global order,
+ * validates every delta, applies them all and stamps the caches with one commit version.
+ * Transactions over disjoint caches therefore run in parallel, and a reader holding the
+ * read locks of all its caches never observes half of a transaction.
+ */
+public class CacheGroup {
+
+    private final AtomicLong commitVersion = new AtomicLong();
+
+    public record Snapshot<R>(long commitVersion, R value) {}
+
+    private record Write<E extends VersionedEntity<V>, V extends Comparable<V>>(
+            VersionedCache<E, V> cache,
+            CacheDelta<E, V> delta
+    ) {
+        void check() {
+            cache.checkVersion(delta.nextDataVersion());
+        }
+
+        void apply(long commitVersion) {
+            cache.applyLocked(delta);
+            cache.setCommitVersion(commitVersion);
+        }
+    }
+
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * Highest commit version handed out so far.
+     */
+    public long getCommitVersion() {
+        return commitVersion.get();
+    }
+
+    /**
+     * Runs the reader while no transaction can modify any of the given caches.
+     *
+     * @return the reader's result with the newest commit version applied to those caches
+     */
+    public <R> Snapshot<R> read(Supplier<R> reader, VersionedCache<?, ?>... caches) {
+        List<Lock> locks = ordered(Arrays.asList(caches)).stream()
+                .map(cache -> cache.getLock().readLock())
+                .toList();
+
+        lockAll(locks);
+        try {
+            long version = Arrays.stream(caches).mapToLong(VersionedCache::getCommitVersion).max().orElse(0);
+            return new Snapshot<>(version, reader.get());
+        } finally {
+            unlockAll(locks);
+        }
+    }
+
+    private static List<VersionedCache<?, ?>> ordered(Collection<VersionedCache<?, ?>> caches) {
+        return caches.stream()
+                .distinct()
+                .sorted(Comparator.comparingLong(VersionedCache::getLockOrder))
+                .toList();
+    }
+
+    private static void lockAll(List<Lock> locks) {
+        for (int i = 0; i < locks.size(); i++) {
+            try {
+                locks.get(i).lock();
+            } catch (RuntimeException e) {
+                unlockAll(locks.subList(0, i));
+                throw e;
+            }
+        }
+    }
+
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    /**
+     * Set of deltas published together; single use.
+     */
+    public final class Transaction {
+
+        private final Map<VersionedCache<?, ?>, Write<?, ?>> writes = new LinkedHashMap<>();
+        private boolean committed;
+
+        private Transaction() {
+        }
+
+        /**
+         * @throws IllegalArgumentException if the cache already has a delta in this transaction,
+         *                                  or reorders deltas: an out-of-order delta cannot be published
+         *                                  atomically with the others
+         */
+        public <E extends VersionedEntity<V>, V extends Comparable<V>> Transaction add(
+                VersionedCache<E, V> cache, CacheDelta<E, V> delta) {
+            if (cache.isReordering()) {
+                throw new IllegalArgumentException("Reordering caches cannot join a transaction");
+            }
+            if (writes.putIfAbsent(cache, new Write<>(cache, delta)) != null) {
+                throw new IllegalArgumentException("Cache already has a delta in this transaction");
+            }
+            return this;
+        }
+
+        /**
+         * Applies all deltas atomically, or none of them if any is older than its cache.
+         *
+         * @return the commit version stamped on every cache in the transaction
+         * @throws IllegalArgumentException if a delta version is older than its cache version
+         */
+        public long commit() {
+            if (committed) {
+                throw new IllegalStateException("Transaction already committed");
+            }
+            committed = true;
+
+            List<Lock> locks = ordered(writes.keySet()).stream()
+                    .map(cache -> cache.getLock().writeLock())
+                    .toList();
+
+            lockAll(locks);
+            try {
+                writes.values().forEach(Write::check);
+
+                long version = commitVersion.incrementAndGet();
+                writes.values().forEach(write -> write.apply(version));
+                return version;
+            } finally {
+                unlockAll(locks);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.tom.nettapoc.generic;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Anti-entropy between a {@link VersionedCache} and its upstream.
+ * <p>
+ * Starting from the whole version range, asks the upstream for digests of {@code fanout}
+ * sub-ranges and compares each with the local digest of the same range. Matching ranges are
+ * skipped; divergent ones are split again until they hold at most {@code repairThreshold}
+ * entities (or cannot be split), then re-fetched and repaired. A handful of divergent entities
+ * among n is thus located in O(log n) round-trips without a full reload.
+ * <p>
+ * Changes newer than the cache version are left to the regular delta sync: the ids changed
+ * upstream since then are fetched first and left out on both sides of every comparison, and
+ * fetched again before each repair, so a cache that is merely behind is never "repaired".
+ */
+public class CacheReconciler<E extends VersionedEntity<V>, V extends Comparable<V>> {
+
+    public record Result(int roundTrips, int repairedRanges, int repairedEntities) {}
+
+    private record Range<V>(V from, V to) {}
+
+    /**
+     * Ids changed upstream after the cache version, and the live ones among them.
+     */
+    private record Newer<E>(Set<String> ids, List<E> live) {}
+
+    private final VersionedExternalService<E, V> service;
+    private final VersionedCache<E, V> cache;
+    private final int fanout;
+    private final int repairThreshold;
+
+    public CacheReconciler(VersionedExternalService<E, V> service, VersionedCache<E, V> cache,
+                           int fanout, int repairThreshold) {
+        if (fanout < 2) {
+            throw new IllegalArgumentException("Fanout must be at least 2, got " + fanout);
+        }
+
+        this.service = service;
+        this.cache = cache;
+        this.fanout = fanout;
+        this.repairThreshold = repairThreshold;
+    }
+
+    /**
+     * @throws IllegalStateException if the cache has not been synced yet
+     */
+    public Result reconcile() {
+        V cacheVersion = cache.getCurrentVersion();
+        if (cacheVersion == null) {
+            throw new IllegalStateException("Cannot reconcile a cache before its first sync");
+        }
+
+        Newer<E> newer = fetchNewer(cacheVersion);
+        int roundTrips = 1;
+        int repairedRanges = 0;
+        int repairedEntities = 0;
+
+        Deque<Range<V>> pending = new ArrayDeque<>();
+        pending.push(new Range<>(null, null));
+
+        while (!pending.isEmpty()) {
+            Range<V> range = pending.pop();
+            List<RangeDigest<V>> upstreamDigests = service.fetchDigests(range.from(), range.to(), fanout);
+            roundTrips++;
+
+            for (RangeDigest<V> digest : upstreamDigests) {
+                RangeDigest<V> upstream = digest.without(newer.live());
+                RangeDigest<V> local = cache.getDigest(upstream.from(), upstream.to(), newer.ids());
+                if (local.matches(upstream)) continue;
+
+                boolean splittable = upstreamDigests.size() > 1;
+                if (splittable && Math.max(local.count(), upstream.count()) > repairThreshold) {
+                    pending.push(new Range<>(upstream.from(), upstream.to()));
+                    continue;
+                }
+
+                List<E> entities = service.fetchRange(upstream.from(), upstream.to());
+                // Anything in the range that changed upstream by now is in this refreshed set.
+                newer = fetchNewer(cacheVersion);
+                roundTrips += 2;
+
+                Set<String> newerIds = newer.ids();
+                List<E> repaired = entities.stream().filter(e -> !newerIds.contains(e.getId())).toList();
+                cache.repairRange(upstream.from(), upstream.to(), repaired, newerIds);
+                repairedRanges++;
+                repairedEntities += Math.max(local.count(), repaired.size());
+            }
+        }
+
+        return new Result(roundTrips, repairedRanges, repairedEntities);
+    }
+
+    private Newer<E> fetchNewer(V cacheVersion) {
+        CacheDelta<E, V> delta = service.fetchUpdates(cacheVersion);
+        Set<String> ids = new HashSet<>(delta.deleted());
+        delta.data().forEach(entity -> ids.add(entity.getId()));
+        return new Newer<>(ids, delta.data());
+    }
+}
@@ -0,0 +1,201 @@
+package org.tom.nettapoc.generic;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Thread-safe versioned store backing the simulated upstream services,
+ * for many concurrent writers and readers.
+ * <p>
+ * Every mutation allocates the next version from an atomic counter and is indexed by it.
+ * Writers finish out of order, so readers only see versions up to the published watermark,
+ * which advances past a version once it and every version below it have been written.
+ * Reads never block writers: they scan the lock-free version index up to the watermark.
+ *
+ * @param <E> Entity type
+ */
+public class ConcurrentVersionedStore<E extends VersionedEntity<?>> {
+
+    /**
+     * @param supersedes version of the change this one replaces for the same id, or 0
+     */
+    private record Change<E>(String id, E entity, long version, long supersedes) {
+        boolean isDeletion() {
+            return entity == null;
+        }
+    }
+
+    private final AtomicLong allocatedVersion = new AtomicLong();
+    private final AtomicLong publishedVersion = new AtomicLong();
+    private final Set<Long> writtenVersions = new ConcurrentSkipListSet<>();
+
+    private final Map<String, Change<E>> latestById = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Change<E>> changesByVersion = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds or replaces the entity with the given id.
+     *
+     * @param factory builds the entity stamped with the allocated version
+     * @return the allocated version
+     */
+    public long upsert(String id, LongFunction<E> factory) {
+        long[] version = new long[1];
+        try {
+            latestById.compute(id, (key, old) -> {
+                version[0] = allocatedVersion.incrementAndGet();
+                Change<E> change = new Change<>(id, factory.apply(version[0]), version[0], versionOf(old));
+                changesByVersion.put(version[0], change);
+                return change;
+            });
+        } finally {
+            if (version[0] != 0) publish(version[0]);
+        }
+        return version[0];
+    }
+
+    /**
+     * Deletes the entity with the given id, recording a tombstone.
+     *
+     * @return false if there was no live entity with that id
+     */
+    public boolean delete(String id) {
+        long[] version = new long[1];
+        latestById.computeIfPresent(id, (key, old) -> {
+            if (old.isDeletion()) return old;
+
+            version[0] = allocatedVersion.incrementAndGet();
+            Change<E> tombstone = new Change<>(id, null, version[0], old.version());
+            changesByVersion.put(version[0], tombstone);
+            return tombstone;
+        });
+
+        if (version[0] == 0) return false;
+        publish(version[0]);
+        return true;
+    }
+
+    /**
+     * Highest version visible to readers.
+     */
+    public long getCurrentVersion() {
+        return publishedVersion.get();
+    }
+
+    /**
+     * Changes after {@code fromVersion} up to the current version.
+     */
+    public StoreDelta<E> changesSince(long fromVersion) {
+        return changesBetween(fromVersion, getCurrentVersion());
+    }
+
+    /**
+     * Latest state of every id changed in (fromVersion, toVersion].
+     *
+     * @throws IllegalArgumentException if toVersion has not been published yet
+     */
+    public StoreDelta<E> changesBetween(long fromVersion, long toVersion) {
+        if (toVersion > getCurrentVersion()) {
+            throw new IllegalArgumentException(
+                    "Version " + toVersion + " is newer than published version " + getCurrentVersion());
+        }
+
+        // An id can briefly be indexed under two versions while a replacement is being published;
+        // iterating in version order keeps only its latest change within the range.
+        Map<String, Change<E>> latestInRange = new LinkedHashMap<>();
+        if (fromVersion < toVersion) {
+            for (Change<E> change : changesByVersion.subMap(fromVersion, false, toVersion, true).values()) {
+                latestInRange.remove(change.id());
+                latestInRange.put(change.id(), change);
+            }
+        }
+
+        List<E> updated = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Change<E> change : latestInRange.values()) {
+            if (change.isDeletion()) {
+                deleted.add(change.id());
+            } else {
+                updated.add(change.entity());
+            }
+        }
+        return new StoreDelta<>(updated, deleted, toVersion);
+    }
+
+    /**
+     * Live entities whose latest version lies in [fromVersion, toVersion), in version order.
+     * Versions above the published watermark are not visible.
+     */
+    public List<E> liveBetween(long fromVersion, long toVersion) {
+        return liveChangesBetween(fromVersion, toVersion).stream()
+                .map(Change::entity)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Digests of the same entities as {@link #liveBetween}, split into up to {@code parts} sub-ranges
+     * by {@link RangeDigest#split}. Only ids and versions are hashed; no entity list is built.
+     *
+     * @param from      lower bound reported by the digests, null if open
+     * @param to        upper bound reported by the digests, null if open
+     * @param versionOf the entity version stamped for a store version; must preserve order
+     */
+    public <V extends Comparable<V>> List<RangeDigest<V>> digestsBetween(long fromVersion, long toVersion, int parts,
+                                                                          V from, V to, LongFunction<V> versionOf) {
+        NavigableMap<V, List<String>> idsByVersion = new TreeMap<>();
+        for (Change<E> change : liveChangesBetween(fromVersion, toVersion)) {
+            idsByVersion.computeIfAbsent(versionOf.apply(change.version()), k -> new ArrayList<>()).add(change.id());
+        }
+        return RangeDigest.split(from, to, parts, idsByVersion);
+    }
+
+    private List<Change<E>> liveChangesBetween(long fromVersion, long toVersion) {
+        long watermark = getCurrentVersion();
+        long upperBound = Math.min(toVersion, watermark + 1);
+
+        if (fromVersion >= upperBound) return List.of();
+
+        Map<String, Change<E>> latestInRange = new LinkedHashMap<>();
+        for (Change<E> change : changesByVersion.subMap(fromVersion, true, upperBound, false).values()) {
+            long latestVersion = latestById.get(change.id()).version();
+            // Superseded within the visible versions, but after the range: not live in this range.
+            if (latestVersion >= upperBound && latestVersion <= watermark) continue;
+
+            latestInRange.remove(change.id());
+            latestInRange.put(change.id(), change);
+        }
+
+        return latestInRange.values().stream()
+                .filter(change -> !change.isDeletion())
+                .toList();
+    }
+
+    /**
+     * Marks the version as written and advances the watermark over every contiguous written version.
+     * A superseded change is unindexed only once its replacement is visible, so readers never lose sight of an id.
+     */
+    private void publish(long version) {
+        writtenVersions.add(version);
+        for (;;) {
+            long watermark = publishedVersion.get();
+            // Only the thread that removes watermark + 1 may advance past it.
+            if (writtenVersions.remove(watermark + 1)) {
+                Change<E> change = changesByVersion.get(watermark + 1);
+                publishedVersion.set(watermark + 1);
+                if (change != null && change.supersedes() != 0) {
+                    changesByVersion.remove(change.supersedes());
+                }
+                continue;
+            }
+            if (publishedVersion.get() == watermark) break;
+        }
+    }
+
+    private static long versionOf(Change<?> change) {
+        return change != null ? change.version() : 0;
+    }
+}
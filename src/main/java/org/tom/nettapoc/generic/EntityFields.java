@@ -0,0 +1,61 @@
+package org.tom.nettapoc.generic;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective access to entity fields by name, with the field lookups cached per class.
+ */
+final class EntityFields {
+
+    private static final Map<Class<?>, Map<String, Field>> FIELDS_BY_CLASS = new ConcurrentHashMap<>();
+
+    private EntityFields() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the fields does not exist on the class
+     */
+    static void check(Class<?> type, Collection<String> fieldNames) {
+        Map<String, Field> fields = fieldsOf(type);
+        for (String fieldName : fieldNames) {
+            if (!fields.containsKey(fieldName)) {
+                throw new IllegalArgumentException("Unknown field " + fieldName + " on " + type.getSimpleName());
+            }
+        }
+    }
+
+    static Object read(Object entity, String fieldName) {
+        Field field = fieldsOf(entity.getClass()).get(fieldName);
+        if (field == null) {
+            throw new IllegalArgumentException(
+                    "Unknown field " + fieldName + " on " + entity.getClass().getSimpleName());
+        }
+
+        try {
+            return field.get(entity);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read field " + fieldName, e);
+        }
+    }
+
+    private static Map<String, Field> fieldsOf(Class<?> clazz) {
+        return FIELDS_BY_CLASS.computeIfAbsent(clazz, EntityFields::collectFields);
+    }
+
+    private static Map<String, Field> collectFields(Class<?> clazz) {
+        Map<String, Field> fields = new HashMap<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isSynthetic() || Modifier.isStatic(field.getModifiers())) continue;
+                field.setAccessible(true);
+                fields.putIfAbsent(field.getName(), field);
+            }
+        }
+        return fields;
+    }
+}
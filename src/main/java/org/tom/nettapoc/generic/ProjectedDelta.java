@@ -0,0 +1,14 @@
+package org.tom.nettapoc.generic;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta restricted to a set of named fields.
+ * Every row carries {@code id} and {@code dataVersion} in addition to the requested fields.
+ */
+public record ProjectedDelta<V extends Comparable<V>>(
+        List<Map<String, Object>> data,
+        List<String> deleted,
+        V nextDataVersion
+) {}
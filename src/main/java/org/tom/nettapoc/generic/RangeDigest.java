@@ -0,0 +1,137 @@
+package org.tom.nettapoc.generic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Order-independent digest of the live entities whose version lies in [from, to).
+ * A null bound is open. Only (id, version) pairs are hashed, so cache and upstream
+ * agree exactly when they hold the same entities at the same versions; tombstones are
+ * left out because a cache records deletions at the version of the delta that carried them.
+ *
+ * @param count number of live entities in the range
+ * @param hash  wrapping sum of the per-entity hashes
+ */
+public record RangeDigest<V extends Comparable<V>>(
+        V from,
+        V to,
+        int count,
+        long hash
+) {
+
+    public boolean matches(RangeDigest<V> other) {
+        return count == other.count && hash == other.hash;
+    }
+
+    /**
+     * This digest without the given entities, those of them in range. They must all be part of it.
+     */
+    public RangeDigest<V> without(Collection<? extends VersionedEntity<V>> entities) {
+        int remainingCount = count;
+        long remainingHash = hash;
+        for (VersionedEntity<V> entity : entities) {
+            if (contains(entity.getDataVersion())) {
+                remainingCount--;
+                remainingHash -= hash(entity.getId(), entity.getDataVersion());
+            }
+        }
+        return new RangeDigest<>(from, to, remainingCount, remainingHash);
+    }
+
+    /**
+     * Whether the version lies in [from, to).
+     */
+    public boolean contains(V version) {
+        return (from == null || version.compareTo(from) >= 0) && (to == null || version.compareTo(to) < 0);
+    }
+
+    /**
+     * Digest of the whole range.
+     *
+     * @param idsByVersion live ids in the range, by version
+     */
+    public static <V extends Comparable<V>> RangeDigest<V> of(V from, V to,
+                                                              NavigableMap<V, ? extends Collection<String>> idsByVersion) {
+        int count = 0;
+        long hash = 0;
+        for (Map.Entry<V, ? extends Collection<String>> entry : idsByVersion.entrySet()) {
+            for (String id : entry.getValue()) {
+                hash += hash(id, entry.getKey());
+                count++;
+            }
+        }
+        return new RangeDigest<>(from, to, count, hash);
+    }
+
+    /**
+     * Splits the range into up to {@code parts} contiguous sub-ranges of similar entity count,
+     * never separating entities of the same version. The sub-ranges cover [from, to) exactly.
+     *
+     * @param idsByVersion live ids in the range, by version
+     */
+    public static <V extends Comparable<V>> List<RangeDigest<V>> split(V from, V to, int parts,
+                                                                        NavigableMap<V, ? extends Collection<String>> idsByVersion) {
+        int total = idsByVersion.values().stream().mapToInt(Collection::size).sum();
+        int target = Math.max(1, (total + parts - 1) / Math.max(1, parts));
+
+        List<V> boundaries = new ArrayList<>();
+        boundaries.add(from);
+        int inBucket = 0;
+        for (Map.Entry<V, ? extends Collection<String>> entry : idsByVersion.entrySet()) {
+            if (inBucket >= target) {
+                boundaries.add(entry.getKey());
+                inBucket = 0;
+            }
+            inBucket += entry.getValue().size();
+        }
+        boundaries.add(to);
+
+        List<RangeDigest<V>> digests = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+            V bucketFrom = boundaries.get(i);
+            V bucketTo = boundaries.get(i + 1);
+            digests.add(of(bucketFrom, bucketTo, subRange(idsByVersion, bucketFrom, bucketTo)));
+        }
+        return digests;
+    }
+
+    /**
+     * Ids of the given entities, by version.
+     */
+    public static <V extends Comparable<V>> NavigableMap<V, List<String>> indexByVersion(
+            Collection<? extends VersionedEntity<V>> entities) {
+        NavigableMap<V, List<String>> idsByVersion = new TreeMap<>();
+        entities.forEach(e -> idsByVersion.computeIfAbsent(e.getDataVersion(), k -> new ArrayList<>()).add(e.getId()));
+        return idsByVersion;
+    }
+
+    static <V extends Comparable<V>, T> NavigableMap<V, T> subRange(NavigableMap<V, T> map, V from, V to) {
+        if (from != null && to != null) return map.subMap(from, true, to, false);
+        if (from != null) return map.tailMap(from, true);
+        if (to != null) return map.headMap(to, false);
+        return map;
+    }
+
+    static long hash(String id, Object version) {
+        long h = 0xcbf29ce484222325L;
+        h = fnv1a(h, id);
+        h = (h ^ 0xff) * 0x100000001b3L;
+        h = fnv1a(h, version.toString());
+
+        // MurmurHash3 finalizer, so that sums of hashes do not cancel out easily
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long fnv1a(long h, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
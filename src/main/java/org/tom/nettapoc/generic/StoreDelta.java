@@ -0,0 +1,12 @@
+package org.tom.nettapoc.generic;
+
+import java.util.List;
+
+/**
+ * Changes read from a {@link ConcurrentVersionedStore}, consistent as of {@code version}.
+ */
+public record StoreDelta<E>(
+        List<E> updated,
+        List<String> deleted,
+        long version
+) {}
@@ -0,0 +1,151 @@
+package org.tom.nettapoc.generic;
+
+import java.util.*;
+
+/**
+ * Revisions of every id over the last retained commits, backing the as-of queries of
+ * {@link VersionedCache}. Not thread-safe; guarded by the cache lock.
+ * <p>
+ * Once more than {@code retainedCommits} commits have been recorded, the oldest retained commit
+ * becomes the floor: queries must not reach below it, so older revisions are dropped. Only ids that
+ * changed at or above the floor keep revisions, plus the newest one below it as their base; every
+ * other id has not changed within the window, so the caller answers it from its live state.
+ */
+final class VersionHistory<E extends VersionedEntity<V>, V extends Comparable<V>> {
+
+    /**
+     * @param entity the entity as of this revision, or null if it was deleted
+     */
+    private record Revision<E>(E entity) {}
+
+    private final int retainedCommits;
+
+    private final Map<String, NavigableMap<V, Revision<E>>> revisionsById = new HashMap<>();
+    /** Revisions at or above the floor, by version; the only ones range queries need. */
+    private final NavigableMap<V, Set<String>> revisionIndex = new TreeMap<>();
+    private final Deque<V> commits = new ArrayDeque<>();
+
+    private V floor;
+
+    VersionHistory(int retainedCommits) {
+        if (retainedCommits < 1) {
+            throw new IllegalArgumentException("At least one commit must be retained, got " + retainedCommits);
+        }
+        this.retainedCommits = retainedCommits;
+    }
+
+    /**
+     * @param previous the live entity being replaced, or null if there was none
+     */
+    void recordUpdate(E entity, E previous) {
+        record(entity.getId(), entity.getDataVersion(), new Revision<>(entity), previous);
+    }
+
+    /**
+     * @param previous the live entity being deleted, or null if there was none
+     */
+    void recordDelete(String id, V version, E previous) {
+        record(id, version, new Revision<>(null), previous);
+    }
+
+    private void record(String id, V version, Revision<E> revision, E previous) {
+        NavigableMap<V, Revision<E>> revisions = revisionsById.computeIfAbsent(id, k -> new TreeMap<>());
+        // First change within the window: the state it replaces becomes the base for older as-of reads.
+        // Not indexed, since it lies below the floor where range queries never start.
+        if (revisions.isEmpty() && previous != null) {
+            revisions.put(previous.getDataVersion(), new Revision<>(previous));
+        }
+        revisions.put(version, revision);
+        revisionIndex.computeIfAbsent(version, k -> new HashSet<>()).add(id);
+    }
+
+    void recordCommit(V version) {
+        if (!commits.isEmpty() && commits.peekLast().equals(version)) return;
+
+        commits.addLast(version);
+        if (commits.size() > retainedCommits) {
+            commits.removeFirst();
+            collectGarbage(commits.peekFirst());
+        }
+    }
+
+    /**
+     * Oldest version that as-of queries may use, or null while the whole history is retained.
+     */
+    V getFloor() {
+        return floor;
+    }
+
+    /**
+     * @param live the id's current entity, or null if it is not live; answers ids without retained revisions
+     */
+    E getAsOf(String id, V asOfVersion, E live) {
+        checkRetained(asOfVersion);
+
+        NavigableMap<V, Revision<E>> revisions = revisionsById.get(id);
+        if (revisions == null) return live;
+
+        Map.Entry<V, Revision<E>> revision = revisions.floorEntry(asOfVersion);
+        return revision != null ? revision.getValue().entity() : null;
+    }
+
+    /**
+     * State as of {@code toVersion} of every id changed within [fromVersion, toVersion].
+     */
+    CacheDelta<E, V> getDelta(V fromVersion, V toVersion) {
+        checkRetained(fromVersion);
+        if (fromVersion.compareTo(toVersion) > 0) {
+            throw new IllegalArgumentException("From version " + fromVersion + " is after to version " + toVersion);
+        }
+
+        Set<String> changedIds = new LinkedHashSet<>();
+        revisionIndex.subMap(fromVersion, true, toVersion, true).values().forEach(changedIds::addAll);
+
+        List<E> data = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (String id : changedIds) {
+            E entity = revisionsById.get(id).floorEntry(toVersion).getValue().entity();
+            if (entity != null) {
+                data.add(entity);
+            } else {
+                deleted.add(id);
+            }
+        }
+        return new CacheDelta<>(data, deleted, toVersion);
+    }
+
+    private void checkRetained(V version) {
+        if (floor != null && version.compareTo(floor) < 0) {
+            throw new IllegalArgumentException(
+                    "Version " + version + " is older than the retained history, which starts at " + floor);
+        }
+    }
+
+    /**
+     * Drops every revision below the new floor, except the newest live one of ids that still
+     * have revisions at or above it, and unindexes them since range queries never start below the floor.
+     */
+    private void collectGarbage(V newFloor) {
+        floor = newFloor;
+
+        NavigableMap<V, Set<String>> expired = revisionIndex.headMap(newFloor, false);
+        Set<String> expiredIds = new HashSet<>();
+        expired.values().forEach(expiredIds::addAll);
+        expired.clear();
+
+        for (String id : expiredIds) {
+            NavigableMap<V, Revision<E>> revisions = revisionsById.get(id);
+            if (revisions.ceilingKey(newFloor) == null) {
+                revisionsById.remove(id);
+                continue;
+            }
+
+            Map.Entry<V, Revision<E>> kept = revisions.floorEntry(newFloor);
+            revisions.headMap(kept.getKey(), false).clear();
+
+            if (kept.getValue().entity() == null && kept.getKey().compareTo(newFloor) < 0) {
+                revisions.remove(kept.getKey());
+            }
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package org.tom.nettapoc.generic;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -11,51 +19,231 @@ import java.util.stream.Collectors;
  * <p>
  * Enforces monotonic dataVersion updates: any new update or delete
  * must have version ≥ current cache version or else throws.
+ * <p>
+ * Fields named as columnar at construction are additionally kept in
+ * per-field column storage, so projected deltas over those fields
+ * never touch the entity bodies. Columnar and projected field names are
+ * checked against the configured entity type.
+ * <p>
+ * In bounded mode (see {@link Builder#maximumSize} and {@link Builder#maximumWeight})
+ * entity bodies are evicted by Caffeine's W-TinyLFU policy while ids and versions stay
+ * resident; evicted bodies are re-read through the loader, in one batch per read and outside the lock.
+ * A body the loader no longer has is left out until the next delta brings its change.
+ * <p>
+ * With {@link Builder#history} enabled the cache also keeps past revisions for the last
+ * N commits, serving {@link #getById(String, Comparable)} and {@link #getDelta(Comparable, Comparable)}
+ * as of any version inside that window. Only ids changed within the window keep revisions; the others
+ * are answered from the live bodies, so history requires an unbounded cache.
+ * <p>
+ * With {@link Builder#reorderBuffer} enabled, deltas may arrive out of order, e.g. from pipelined
+ * fetchers: each id keeps whichever change has the highest version (last writer wins), while the
+ * current version only advances once every delta below it has been applied.
  *
  * @param <E> Entity type implementing VersionedEntity<V>
  * @param <V> Version type (must be Comparable)
  */
 public class VersionedCache<E extends VersionedEntity<V>, V extends Comparable<V>> {
 
-    private final Map<String, E> entitiesById = new HashMap<>();
+    private final Cache<String, E> entitiesById;
+    private final Function<? super Set<String>, ? extends Map<String, ? extends E>> loader;
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    private final Map<String, V> versionsById = new HashMap<>();
     private final NavigableMap<V, Set<String>> versionIndex = new TreeMap<>();
 
 
     private final Map<String, V> deletedIdsToVersion = new HashMap<>();
     private final NavigableMap<V, Set<String>> deletedIndex = new TreeMap<>();
 
+    /** Live entities re-added by {@link #repairRange}, by the cache version at which they were repaired. */
+    private final Map<String, V> repairedIdsToVersion = new HashMap<>();
+    private final NavigableMap<V, Set<String>> repairedIndex = new TreeMap<>();
+
+    private final Class<? extends E> entityType;
+    private final Map<String, Map<String, Object>> columnsByField = new HashMap<>();
+
+    private final VersionHistory<E, V> history;
+
+    /** Deltas applied ahead of the current version, as fromVersion to nextDataVersion; null unless reordering. */
+    private final NavigableMap<V, V> pendingRanges;
+
+    private static final String ID_FIELD = "id";
+    private static final String VERSION_FIELD = "dataVersion";
+
+    private static final AtomicLong NEXT_LOCK_ORDER = new AtomicLong();
+
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+    private final long lockOrder = NEXT_LOCK_ORDER.incrementAndGet();
 
     private volatile V currentVersion;
+    private volatile long commitVersion;
 
     public VersionedCache() {
-        currentVersion = null;
+        this(VersionedCache.<E, V>builder());
     }
 
     public VersionedCache(V initialVersion) {
-        currentVersion = initialVersion;
+        this(VersionedCache.<E, V>builder().initialVersion(initialVersion));
+    }
+
+    /**
+     * @param entityType     entity class, whose fields projections may name
+     * @param columnarFields entity fields to keep in column storage for projected deltas
+     * @throws IllegalArgumentException if a columnar field does not exist on the entity type
+     */
+    public VersionedCache(V initialVersion, Class<? extends E> entityType, Set<String> columnarFields) {
+        this(VersionedCache.<E, V>builder().initialVersion(initialVersion).entityType(entityType).columnarFields(columnarFields));
+    }
+
+    private VersionedCache(Builder<E, V> builder) {
+        builder.validate();
+        currentVersion = builder.initialVersion;
+        loader = builder.loader;
+        entityType = builder.entityType;
+        history = builder.historyCommits > 0 ? new VersionHistory<>(builder.historyCommits) : null;
+        pendingRanges = builder.reorderBuffer ? new TreeMap<>() : null;
+        builder.columnarFields.forEach(field -> columnsByField.put(field, new HashMap<>()));
+
+        Caffeine<Object, Object> caffeine = Caffeine.newBuilder()
+                .executor(Runnable::run)
+                .recordStats();
+        if (builder.maximumSize >= 0) {
+            caffeine.maximumSize(builder.maximumSize);
+        }
+        if (builder.maximumWeight >= 0) {
+            ToIntFunction<? super E> weigher = builder.weigher;
+            caffeine.maximumWeight(builder.maximumWeight)
+                    .<String, E>weigher((id, entity) -> weigher.applyAsInt(entity));
+        }
+        entitiesById = caffeine.build();
+    }
+
+    public static <E extends VersionedEntity<V>, V extends Comparable<V>> Builder<E, V> builder() {
+        return new Builder<>();
     }
 
+    /**
+     * @throws IllegalArgumentException if the delta version is older than the current version
+     * @throws IllegalStateException    with a reorder buffer, which needs the delta's fromVersion
+     */
     public void applyDeltaToCache(CacheDelta<E, V> delta) {
+        if (pendingRanges != null) {
+            throw new IllegalStateException("A reordering cache needs the fromVersion of each delta");
+        }
+
         V responseVersion = delta.nextDataVersion();
         checkVersion(responseVersion);
 
         rwLock.writeLock().lock();
         try {
+            applyLocked(delta);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a delta fetched with the given fromVersion cursor.
+     * <p>
+     * Without a reorder buffer this is {@link #applyDeltaToCache(CacheDelta)}. With one, the delta is
+     * never rejected: every id keeps its newest change, and the current version advances to
+     * {@code nextDataVersion} only once the delta connects to it, directly or through deltas
+     * buffered earlier.
+     */
+    public void applyDeltaToCache(V fromVersion, CacheDelta<E, V> delta) {
+        if (pendingRanges == null) {
+            applyDeltaToCache(delta);
+            return;
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            V responseVersion = delta.nextDataVersion();
+
             if (delta.data() != null) {
-                delta.data().forEach(this::add);
+                delta.data().stream().filter(this::isNewest).forEach(this::add);
             }
 
             if (delta.deleted() != null) {
-                delta.deleted().forEach(id -> delete(id, responseVersion));
+                delta.deleted().stream()
+                        .filter(id -> isNewestDeletion(id, responseVersion))
+                        .forEach(id -> delete(id, responseVersion));
             }
 
-            commit(responseVersion);
+            pendingRanges.merge(fromVersion, responseVersion, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+            advanceOverPendingRanges();
         } finally {
             rwLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Number of deltas applied but not yet covered by the current version.
+     */
+    public int getPendingDeltaCount() {
+        rwLock.readLock().lock();
+        try {
+            return pendingRanges != null ? pendingRanges.size() : 0;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private boolean isNewest(E entity) {
+        V version = entity.getDataVersion();
+        V liveVersion = versionsById.get(entity.getId());
+        if (liveVersion != null) return version.compareTo(liveVersion) >= 0;
+
+        V deletedVersion = deletedIdsToVersion.get(entity.getId());
+        return deletedVersion == null || version.compareTo(deletedVersion) > 0;
+    }
+
+    /**
+     * A deletion wins over a live entity of the same version: the entity was in the same
+     * or an earlier delta than the one reporting the deletion.
+     */
+    private boolean isNewestDeletion(String id, V deletionVersion) {
+        V liveVersion = versionsById.get(id);
+        if (liveVersion != null) return deletionVersion.compareTo(liveVersion) >= 0;
+
+        V deletedVersion = deletedIdsToVersion.get(id);
+        return deletedVersion == null || deletionVersion.compareTo(deletedVersion) >= 0;
+    }
+
+    private void advanceOverPendingRanges() {
+        Map.Entry<V, V> range;
+        while ((range = pendingRanges.firstEntry()) != null && range.getKey().compareTo(currentVersion) <= 0) {
+            pendingRanges.pollFirstEntry();
+            if (range.getValue().compareTo(currentVersion) > 0) {
+                commit(range.getValue());
+            }
+        }
+    }
+
+    boolean isReordering() {
+        return pendingRanges != null;
+    }
+
+    /**
+     * Applies a delta without locking or version checks; the caller holds the write lock.
+     * Not for reordering caches, whose deltas go through the reorder buffer.
+     */
+    void applyLocked(CacheDelta<E, V> delta) {
+        V responseVersion = delta.nextDataVersion();
+
+        if (delta.data() != null) {
+            delta.data().forEach(this::add);
+        }
+
+        if (delta.deleted() != null) {
+            delta.deleted().forEach(id -> delete(id, responseVersion));
+        }
+
+        commit(responseVersion);
+    }
+
     /**
      * Add or update an entity with a version check.
      *
@@ -63,10 +251,21 @@ public class VersionedCache<E extends VersionedEntity<V>, V extends Comparable<V
      */
     private void add(E entity) {
         String id = entity.getId();
+        // Read before touching any index, so a failed read leaves the entity's previous state intact.
+        Map<String, Object> columnValues = new HashMap<>();
+        columnsByField.keySet().forEach(field -> columnValues.put(field, EntityFields.read(entity, field)));
+        E previous = history != null ? entitiesById.asMap().get(id) : null;
+
         removeFromCache(id);
 
         entitiesById.put(id, entity);
+        versionsById.put(id, entity.getDataVersion());
+        columnValues.forEach((field, value) -> columnsByField.get(field).put(id, value));
         versionIndex.computeIfAbsent(entity.getDataVersion(), k -> new HashSet<>()).add(id);
+
+        if (history != null) {
+            history.recordUpdate(entity, previous);
+        }
     }
 
     /**
@@ -75,53 +274,140 @@ public class VersionedCache<E extends VersionedEntity<V>, V extends Comparable<V
      * @throws IllegalArgumentException if deletionVersion < currentVersion
      */
     private void delete(String id, V deletionVersion) {
+        E previous = history != null ? entitiesById.asMap().get(id) : null;
         removeFromCache(id);
 
         deletedIdsToVersion.put(id, deletionVersion);
         deletedIndex.computeIfAbsent(deletionVersion, k -> new HashSet<>()).add(id);
+
+        if (history != null) {
+            history.recordDelete(id, deletionVersion, previous);
+        }
     }
 
     private void removeFromCache(String id) {
-        E oldEntity = entitiesById.remove(id);
-        if (oldEntity != null) {
-            V oldVersion = oldEntity.getDataVersion();
-            Set<String> ids = versionIndex.get(oldVersion);
-            ids.remove(id);
-            if (ids.isEmpty()) {
-                versionIndex.remove(oldVersion);
-            }
+        removeFromIndex(repairedIdsToVersion, repairedIndex, id);
+
+        if (removeFromIndex(versionsById, versionIndex, id)) {
+            entitiesById.invalidate(id);
+            columnsByField.values().forEach(column -> column.remove(id));
             return;
         }
 
-        V oldVersion = deletedIdsToVersion.remove(id);
-        if (oldVersion == null) return;
+        removeFromIndex(deletedIdsToVersion, deletedIndex, id);
+    }
+
+    /**
+     * @return false if the id was not indexed
+     */
+    private boolean removeFromIndex(Map<String, V> idsToVersion, NavigableMap<V, Set<String>> index, String id) {
+        V version = idsToVersion.remove(id);
+        if (version == null) return false;
 
-        Set<String> ids = deletedIndex.get(oldVersion);
+        Set<String> ids = index.get(version);
         ids.remove(id);
         if (ids.isEmpty()) {
-            deletedIndex.remove(oldVersion);
+            index.remove(version);
         }
+        return true;
     }
 
     public CacheDelta<E, V> getDelta(V version) {
+        Map<String, V> versions;
+        Map<String, E> bodies = new HashMap<>();
+        Map<String, V> evicted = new LinkedHashMap<>();
+        List<String> deleted;
+        V deltaVersion;
+
         rwLock.readLock().lock();
         try {
-            return new CacheDelta<>(
-                    getEntitiesFromVersion(version),
-                    getDeletedFromVersion(version),
-                    currentVersion
-            );
+            versions = getVersionsFromVersion(version);
+            collectBodies(versions, bodies, evicted);
+            deleted = getDeletedFromVersion(version);
+            deltaVersion = currentVersion;
         } finally {
             rwLock.readLock().unlock();
         }
-    }
 
-    private List<E> getEntitiesFromVersion(V fromVersion) {
-        return versionIndex.tailMap(fromVersion, true).values().stream()
-                .flatMap(Set::stream)
-                .map(entitiesById::get)
+        loadEvicted(evicted, bodies);
+        List<E> data = versions.keySet().stream()
+                .map(bodies::get)
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
+        return new CacheDelta<>(data, deleted, deltaVersion);
+    }
+
+    /**
+     * Same as {@link #getDelta(Comparable)}, but every entity is reduced to the given fields.
+     * Columnar fields are served from column storage; any other field is read from the entity.
+     * Every row carries the canonical {@code id} and {@code dataVersion}, so requesting those is a no-op.
+     *
+     * @throws IllegalStateException    if no entity type was configured
+     * @throws IllegalArgumentException if a field does not exist on the entity type
+     */
+    public ProjectedDelta<V> getDelta(V version, Set<String> fields) {
+        if (entityType == null) {
+            throw new IllegalStateException("Projections require an entity type, see Builder#entityType");
+        }
+        List<String> projected = fields.stream()
+                .filter(field -> !field.equals(ID_FIELD) && !field.equals(VERSION_FIELD))
+                .toList();
+        EntityFields.check(entityType, projected);
+        List<String> bodyFields = projected.stream().filter(field -> !columnsByField.containsKey(field)).toList();
+
+        Map<String, Map<String, Object>> rowsById = new LinkedHashMap<>();
+        Map<String, E> bodies = new HashMap<>();
+        Map<String, V> evicted = new LinkedHashMap<>();
+        List<String> deleted;
+        V deltaVersion;
+
+        rwLock.readLock().lock();
+        try {
+            Map<String, V> versions = getVersionsFromVersion(version);
+            versions.forEach((id, entityVersion) -> rowsById.put(id, project(id, entityVersion, projected)));
+            if (!bodyFields.isEmpty()) {
+                collectBodies(versions, bodies, evicted);
+            }
+            deleted = getDeletedFromVersion(version);
+            deltaVersion = currentVersion;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        if (!bodyFields.isEmpty()) {
+            loadEvicted(evicted, bodies);
+            rowsById.keySet().retainAll(bodies.keySet());
+            rowsById.forEach((id, row) -> bodyFields.forEach(field -> row.put(field, EntityFields.read(bodies.get(id), field))));
+        }
+        return new ProjectedDelta<>(new ArrayList<>(rowsById.values()), deleted, deltaVersion);
+    }
+
+    /**
+     * Canonical and columnar values of a row; must be called under the lock.
+     */
+    private Map<String, Object> project(String id, V version, List<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(ID_FIELD, id);
+        row.put(VERSION_FIELD, version);
+        for (String field : fields) {
+            Map<String, Object> column = columnsByField.get(field);
+            if (column != null) {
+                row.put(field, column.get(id));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Versions of the live entities changed at or after fromVersion, including those repaired
+     * since then at an older entity version.
+     */
+    private Map<String, V> getVersionsFromVersion(V fromVersion) {
+        Map<String, V> versions = new LinkedHashMap<>();
+        versionIndex.tailMap(fromVersion, true).forEach((version, ids) -> ids.forEach(id -> versions.put(id, version)));
+        repairedIndex.tailMap(fromVersion, true).values().forEach(ids ->
+                ids.forEach(id -> versions.putIfAbsent(id, versionsById.get(id))));
+        return versions;
     }
 
     private List<String> getDeletedFromVersion(V fromVersion) {
@@ -137,8 +423,39 @@ public class VersionedCache<E extends VersionedEntity<V>, V extends Comparable<V
         return currentVersion;
     }
 
+    /**
+     * Global commit version of the last {@link CacheGroup} transaction applied to this cache, or 0.
+     */
+    public long getCommitVersion() {
+        return commitVersion;
+    }
+
+    void setCommitVersion(long commitVersion) {
+        this.commitVersion = commitVersion;
+    }
+
+    ReadWriteLock getLock() {
+        return rwLock;
+    }
+
+    /**
+     * Position in the global lock order shared by multi-cache transactions and snapshots.
+     */
+    long getLockOrder() {
+        return lockOrder;
+    }
+
     public void commit(V newVersion) {
         currentVersion = newVersion;
+
+        if (history != null) {
+            rwLock.writeLock().lock();
+            try {
+                history.recordCommit(newVersion);
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+        }
     }
 
     public void checkVersion(V newVersion) {
@@ -148,7 +465,384 @@ public class VersionedCache<E extends VersionedEntity<V>, V extends Comparable<V
         }
     }
 
+    /**
+     * An evicted body is reloaded outside the lock. It may be newer than the indexed version,
+     * and is null if the loader no longer has it; the next delta brings the change either way.
+     */
     public E getById(String id) {
-        return entitiesById.get(id);
+        E entity = entitiesById.getIfPresent(id);
+        if (entity != null || loader == null) {
+            return entity;
+        }
+
+        V version;
+        rwLock.readLock().lock();
+        try {
+            version = versionsById.get(id);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        if (version == null) return null;
+
+        Map<String, E> bodies = new HashMap<>();
+        loadEvicted(Map.of(id, version), bodies);
+        return bodies.get(id);
+    }
+
+    /**
+     * Digests of [from, to) split into up to {@code parts} sub-ranges, as an upstream would
+     * split it; null bounds are open. Computed from ids and versions only, never entity bodies.
+     */
+    public List<RangeDigest<V>> getDigests(V from, V to, int parts) {
+        rwLock.readLock().lock();
+        try {
+            return RangeDigest.split(from, to, parts, RangeDigest.subRange(versionIndex, from, to));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Digest of the live entities with versions in [from, to); null bounds are open.
+     */
+    public RangeDigest<V> getDigest(V from, V to) {
+        return getDigest(from, to, Set.of());
+    }
+
+    /**
+     * Digest of the live entities with versions in [from, to), leaving out the given ids.
+     */
+    public RangeDigest<V> getDigest(V from, V to, Set<String> excludedIds) {
+        rwLock.readLock().lock();
+        try {
+            NavigableMap<V, Set<String>> range = RangeDigest.subRange(versionIndex, from, to);
+            if (excludedIds.isEmpty()) {
+                return RangeDigest.of(from, to, range);
+            }
+
+            NavigableMap<V, List<String>> included = new TreeMap<>();
+            range.forEach((version, ids) -> included.put(version,
+                    ids.stream().filter(id -> !excludedIds.contains(id)).toList()));
+            return RangeDigest.of(from, to, included);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the live entities with versions in [from, to) by the upstream ones for that range.
+     * Local entities missing upstream are deleted at the current version, and upstream entities
+     * the cache did not hold at their version are reported as changed at the current version too,
+     * so readers of {@link #getDelta(Comparable)} see the repair as a regular change.
+     *
+     * @throws IllegalStateException if nothing has been committed yet
+     */
+    public void repairRange(V from, V to, List<E> upstreamEntities) {
+        repairRange(from, to, upstreamEntities, Set.of());
+    }
+
+    /**
+     * Same as {@link #repairRange(Comparable, Comparable, List)}, but never deletes the given ids,
+     * e.g. those that changed upstream after the current version and are due in the next delta.
+     *
+     * @throws IllegalStateException if nothing has been committed yet
+     */
+    public void repairRange(V from, V to, List<E> upstreamEntities, Set<String> keptIds) {
+        rwLock.writeLock().lock();
+        try {
+            if (currentVersion == null) {
+                throw new IllegalStateException("Cannot repair a cache before its first commit");
+            }
+
+            Set<String> upstreamIds = upstreamEntities.stream().map(E::getId).collect(Collectors.toSet());
+            List<String> stale = RangeDigest.subRange(versionIndex, from, to).values().stream()
+                    .flatMap(Set::stream)
+                    .filter(id -> !upstreamIds.contains(id) && !keptIds.contains(id))
+                    .toList();
+
+            V repairVersion = currentVersion;
+            stale.forEach(id -> delete(id, repairVersion));
+            for (E entity : upstreamEntities) {
+                V localVersion = versionsById.get(entity.getId());
+                if (localVersion != null && localVersion.compareTo(entity.getDataVersion()) == 0) continue;
+
+                add(entity);
+                repairedIdsToVersion.put(entity.getId(), repairVersion);
+                repairedIndex.computeIfAbsent(repairVersion, k -> new HashSet<>()).add(entity.getId());
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The entity as it was at the given version, or null if it did not exist then.
+     *
+     * @throws IllegalStateException    if history is not enabled
+     * @throws IllegalArgumentException if the version is older than the retained history
+     *                                  or newer than the current version
+     */
+    public E getById(String id, V asOfVersion) {
+        VersionHistory<E, V> history = requireHistory();
+
+        rwLock.readLock().lock();
+        try {
+            if (currentVersion == null || asOfVersion.compareTo(currentVersion) > 0) {
+                throw new IllegalArgumentException(
+                        "As-of version " + asOfVersion + " is newer than current cache version " + currentVersion);
+            }
+            return history.getAsOf(id, asOfVersion, entitiesById.asMap().get(id));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Changes within the closed range [fromVersion, toVersion], each id in its state as of toVersion.
+     *
+     * @throws IllegalStateException    if history is not enabled
+     * @throws IllegalArgumentException if the range is reversed, starts before the retained history
+     *                                  or ends after the current version
+     */
+    public CacheDelta<E, V> getDelta(V fromVersion, V toVersion) {
+        VersionHistory<E, V> history = requireHistory();
+
+        rwLock.readLock().lock();
+        try {
+            if (currentVersion == null || toVersion.compareTo(currentVersion) > 0) {
+                throw new IllegalArgumentException(
+                        "To version " + toVersion + " is newer than current cache version " + currentVersion);
+            }
+            return history.getDelta(fromVersion, toVersion);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Oldest version that as-of queries may use, or null while the whole history is retained.
+     *
+     * @throws IllegalStateException if history is not enabled
+     */
+    public V getHistoryFloor() {
+        VersionHistory<E, V> history = requireHistory();
+
+        rwLock.readLock().lock();
+        try {
+            return history.getFloor();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private VersionHistory<E, V> requireHistory() {
+        if (history == null) {
+            throw new IllegalStateException("History is not enabled for this cache");
+        }
+        return history;
+    }
+
+    /**
+     * Hit, miss, load and eviction counters of the entity body store.
+     * Hits and misses count {@link #getById(String)} lookups only; loads count every evicted body
+     * re-read through the loader, and load failures those it no longer had at their indexed version.
+     */
+    public CacheStats getStats() {
+        return entitiesById.stats().plus(CacheStats.of(0, 0,
+                loadSuccesses.sum(), loadFailures.sum(), loadNanos.sum(), 0, 0));
+    }
+
+    /**
+     * Number of entity bodies currently held in memory.
+     */
+    public long getResidentEntityCount() {
+        return entitiesById.estimatedSize();
+    }
+
+    /**
+     * Number of live entities, resident or evicted.
+     */
+    public int size() {
+        rwLock.readLock().lock();
+        try {
+            return versionsById.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits the given live entities into resident bodies and evicted ones, with their indexed versions.
+     * Must be called under the lock; goes through the map view so that scans do not count as hits or misses.
+     */
+    private void collectBodies(Map<String, V> versions, Map<String, E> bodies, Map<String, V> evicted) {
+        versions.forEach((id, version) -> {
+            E entity = entitiesById.asMap().get(id);
+            if (entity != null) {
+                bodies.put(id, entity);
+            } else if (loader != null) {
+                evicted.put(id, version);
+            }
+        });
+    }
+
+    /**
+     * Reloads evicted bodies in one batch, without holding the lock. A body at or after its indexed
+     * version is used; one at exactly that version is cached again if the id has not changed meanwhile.
+     * A missing or older body is skipped and counted as a load failure.
+     */
+    private void loadEvicted(Map<String, V> evicted, Map<String, E> bodies) {
+        if (evicted.isEmpty()) return;
+
+        long start = System.nanoTime();
+        Map<String, ? extends E> loaded = loader.apply(Collections.unmodifiableSet(evicted.keySet()));
+        loadNanos.add(System.nanoTime() - start);
+
+        rwLock.readLock().lock();
+        try {
+            evicted.forEach((id, version) -> {
+                E entity = loaded.get(id);
+                if (entity == null || entity.getDataVersion().compareTo(version) < 0) {
+                    loadFailures.increment();
+                    return;
+                }
+
+                loadSuccesses.increment();
+                bodies.put(id, entity);
+                if (entity.getDataVersion().compareTo(version) == 0 && version.equals(versionsById.get(id))) {
+                    entitiesById.asMap().putIfAbsent(id, entity);
+                }
+            });
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    public static final class Builder<E extends VersionedEntity<V>, V extends Comparable<V>> {
+        private V initialVersion;
+        private Class<? extends E> entityType;
+        private Set<String> columnarFields = Set.of();
+        private long maximumSize = -1;
+        private long maximumWeight = -1;
+        private ToIntFunction<? super E> weigher;
+        private Function<? super Set<String>, ? extends Map<String, ? extends E>> loader;
+        private int historyCommits;
+        private boolean reorderBuffer;
+
+        private Builder() {
+        }
+
+        public Builder<E, V> initialVersion(V initialVersion) {
+            this.initialVersion = initialVersion;
+            return this;
+        }
+
+        /**
+         * Entity class whose fields projections and columnar fields name; required for both.
+         */
+        public Builder<E, V> entityType(Class<? extends E> entityType) {
+            this.entityType = entityType;
+            return this;
+        }
+
+        /**
+         * Entity fields to keep in column storage for projected deltas. Requires an {@link #entityType}.
+         */
+        public Builder<E, V> columnarFields(Set<String> columnarFields) {
+            this.columnarFields = Set.copyOf(columnarFields);
+            return this;
+        }
+
+        /**
+         * Bounds the number of entity bodies held in memory. Requires a {@link #loader}.
+         */
+        public Builder<E, V> maximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Bounds the total weight of entity bodies held in memory. Requires a {@link #loader}.
+         */
+        public Builder<E, V> maximumWeight(long maximumWeight, ToIntFunction<? super E> weigher) {
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Reads an evicted entity body back by id, e.g. from a persisted snapshot or upstream;
+         * null if it no longer exists. Called without the cache lock held. A body newer than the
+         * indexed version is served as is; a missing or older one is left out of the read.
+         */
+        public Builder<E, V> loader(Function<String, ? extends E> loader) {
+            this.loader = ids -> {
+                Map<String, E> entities = new HashMap<>();
+                for (String id : ids) {
+                    E entity = loader.apply(id);
+                    if (entity != null) {
+                        entities.put(id, entity);
+                    }
+                }
+                return entities;
+            };
+            return this;
+        }
+
+        /**
+         * Same as {@link #loader}, but reads all the evicted bodies of one read in a single call,
+         * e.g. one upstream round-trip. Ids the loader no longer has are left out of the result.
+         */
+        public Builder<E, V> batchLoader(Function<? super Set<String>, ? extends Map<String, ? extends E>> loader) {
+            this.loader = loader;
+            return this;
+        }
+
+        /**
+         * Keeps past revisions for the last {@code retainedCommits} commits, enabling as-of queries.
+         * Not available in bounded mode.
+         */
+        public Builder<E, V> history(int retainedCommits) {
+            if (retainedCommits < 1) {
+                throw new IllegalArgumentException("At least one commit must be retained, got " + retainedCommits);
+            }
+            this.historyCommits = retainedCommits;
+            return this;
+        }
+
+        /**
+         * Accepts out-of-order deltas through {@link VersionedCache#applyDeltaToCache(Comparable, CacheDelta)}.
+         * Requires an {@link #initialVersion}, the cursor of the first delta.
+         */
+        public Builder<E, V> reorderBuffer(boolean reorderBuffer) {
+            this.reorderBuffer = reorderBuffer;
+            return this;
+        }
+
+        public VersionedCache<E, V> build() {
+            return new VersionedCache<>(this);
+        }
+
+        private void validate() {
+            if (!columnarFields.isEmpty()) {
+                if (entityType == null) {
+                    throw new IllegalStateException("Columnar fields require an entity type");
+                }
+                EntityFields.check(entityType, columnarFields);
+            }
+            if (reorderBuffer && initialVersion == null) {
+                throw new IllegalStateException("A reorder buffer requires an initial version");
+            }
+            if (maximumSize >= 0 && maximumWeight >= 0) {
+                throw new IllegalStateException("maximumSize and maximumWeight are mutually exclusive");
+            }
+            if ((maximumSize >= 0 || maximumWeight >= 0) && loader == null) {
+                throw new IllegalStateException("A bounded cache requires a loader for evicted entities");
+            }
+            // History answers ids unchanged within its window from the live bodies, which must stay resident.
+            if ((maximumSize >= 0 || maximumWeight >= 0) && historyCommits > 0) {
+                throw new IllegalStateException("History cannot be combined with a bounded cache");
+            }
+        }
     }
 }
@@ -1,5 +1,7 @@
 package org.tom.nettapoc.generic;
 
+import java.util.List;
+
 public interface VersionedExternalService<E extends VersionedEntity<V>, V extends Comparable<V>> {
 
     /**
@@ -9,4 +11,15 @@ public interface VersionedExternalService<E extends VersionedEntity<V>, V extend
      * @return VersionedServiceResponse containing updated entities, deleted entity IDs, and next version.
      */
     CacheDelta<E, V> fetchUpdates(V dataVersion);
+
+    /**
+     * Digests of the live entities with versions in [fromVersion, toVersion), split into up to
+     * {@code parts} contiguous sub-ranges. Null bounds are open.
+     */
+    List<RangeDigest<V>> fetchDigests(V fromVersion, V toVersion, int parts);
+
+    /**
+     * Live entities with versions in [fromVersion, toVersion). Null bounds are open.
+     */
+    List<E> fetchRange(V fromVersion, V toVersion);
 }
@@ -0,0 +1,45 @@
+package org.tom.nettapoc.generic;
+
+/**
+ * Keeps a {@link VersionedCache} in sync with a {@link VersionedExternalService}
+ * by repeatedly fetching the delta since the last applied version.
+ */
+public class VersionedSyncClient<E extends VersionedEntity<V>, V extends Comparable<V>> {
+
+    private final VersionedExternalService<E, V> service;
+    private final VersionedCache<E, V> cache;
+    private final V initialVersion;
+
+    /**
+     * @param initialVersion cursor used until the cache has applied its first delta
+     */
+    public VersionedSyncClient(VersionedExternalService<E, V> service, VersionedCache<E, V> cache, V initialVersion) {
+        this.service = service;
+        this.cache = cache;
+        this.initialVersion = initialVersion;
+    }
+
+    /**
+     * Fetches and applies one delta.
+     *
+     * @return number of updated and deleted entities in the delta
+     */
+    public int syncOnce() {
+        V cursor = getCursor();
+        CacheDelta<E, V> delta = service.fetchUpdates(cursor);
+        cache.applyDeltaToCache(cursor, delta);
+
+        int updated = delta.data() != null ? delta.data().size() : 0;
+        int deleted = delta.deleted() != null ? delta.deleted().size() : 0;
+        return updated + deleted;
+    }
+
+    public V getCursor() {
+        V current = cache.getCurrentVersion();
+        return current != null ? current : initialVersion;
+    }
+
+    public VersionedCache<E, V> getCache() {
+        return cache;
+    }
+}
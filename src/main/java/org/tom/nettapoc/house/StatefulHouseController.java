@@ -1,51 +1,66 @@
 package org.tom.nettapoc.house;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.tom.nettapoc.generic.ConcurrentVersionedStore;
+import org.tom.nettapoc.generic.RangeDigest;
 import org.tom.nettapoc.generic.VersionedExternalService;
 import org.tom.nettapoc.generic.CacheDelta;
+import org.tom.nettapoc.generic.StoreDelta;
+import org.tom.nettapoc.load.SimulatedUpstream;
+import org.tom.nettapoc.load.WorkloadProperties;
+import org.tom.nettapoc.web.DeltaResponseCache;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 @RestController
 @Component
-public class StatefulHouseController implements VersionedExternalService<House, Integer> {
+public class StatefulHouseController implements VersionedExternalService<House, Integer>, SimulatedUpstream {
 
-    private final AtomicInteger currentVersion = new AtomicInteger(0);
-    private final Map<String, House> houseStore = new HashMap<>();
-    private final Map<String, Integer> deletedHouses = new HashMap<>();
-    private final List<Long> possiblePersonIds = new ArrayList<>();
+    private static final Logger log = LoggerFactory.getLogger(StatefulHouseController.class);
 
-    // Fixed seed for reproducibility
-    private final Random random;
+    private static final long FIRST_PERSON_ID = 1000;
 
-    public StatefulHouseController() {
-        long seed = 123456789L;  // fixed seed, change as needed
-        this.random = new Random(seed);
-        init();
+    private final ConcurrentVersionedStore<House> houseStore = new ConcurrentVersionedStore<>();
+
+    private final DeltaResponseCache responseCache;
+    private final long houseCount;
+    private final long personCount;
+
+    public StatefulHouseController(WorkloadProperties properties, DeltaResponseCache responseCache) {
+        this.responseCache = responseCache;
+        this.houseCount = properties.houseCount();
+        this.personCount = properties.personCount();
+        init(new Random(properties.seed()));
     }
 
-    public void init() {
-        // Prepare person IDs from 1000 to 1999 (1000 persons)
-        for (long i = 1000; i < 2000; i++) {
-            possiblePersonIds.add(i);
+    private void init(Random random) {
+        for (long key = 0; key < houseCount; key++) {
+            upsert(key, random);
         }
+    }
 
-        // Initialize 20 houses with random 1-5 person IDs each
-        for (int i = 1; i <= 20; i++) {
-            List<Long> persons = randomSample(possiblePersonIds, random.nextInt(5) + 1);
-            addOrUpdateHouse(new House("h" + i, persons, 0));
-        }
+    private static String houseId(long key) {
+        return "h" + (key + 1);
     }
 
-    private List<Long> randomSample(List<Long> source, int count) {
-        List<Long> copy = new ArrayList<>(source);
-        Collections.shuffle(copy, random);  // shuffle with fixed seed
-        return new ArrayList<>(copy.subList(0, count));
+    /**
+     * Picks 1-5 distinct person ids from the simulated person key space.
+     */
+    private List<Long> randomPersonIds(Random random) {
+        int count = (int) Math.min(random.nextInt(5) + 1, personCount);
+        Set<Long> persons = new LinkedHashSet<>();
+        while (persons.size() < count) {
+            persons.add(FIRST_PERSON_ID + random.nextLong(personCount));
+        }
+        return new ArrayList<>(persons);
     }
 
     /**
@@ -53,26 +68,31 @@ public class StatefulHouseController implements VersionedExternalService<House,
      * The dataVersion is assigned automatically (incremented global version).
      */
     public void addOrUpdateHouse(House house) {
-        int newVersion = currentVersion.incrementAndGet();
-        House updatedHouse = new House(house.getId(), house.getPersonIds(), newVersion);
-        houseStore.put(house.getId(), updatedHouse);
-        deletedHouses.remove(house.getId()); // If previously deleted, remove from deleted map
-
-        System.out.printf("[Version %d] Added/Updated house %s with persons %s%n",
-                newVersion, updatedHouse.getId(), updatedHouse.getPersonIds());
+        houseStore.upsert(house.getId(),
+                version -> new House(house.getId(), house.getPersonIds(), Math.toIntExact(version)));
     }
 
     /**
      * Deletes a house by id.
      * Removes it from house store and records deletion version.
+     *
+     * @return false if there was no live house with that id
      */
-    public void deleteHouse(String houseId) {
-        if (houseStore.containsKey(houseId)) {
-            houseStore.remove(houseId);
-            int newVersion = currentVersion.incrementAndGet();
-            deletedHouses.put(houseId, newVersion);
-            System.out.printf("[Version %d] Deleted house %s%n", newVersion, houseId);
-        }
+    public boolean deleteHouse(String houseId) {
+        return houseStore.delete(houseId);
+    }
+
+    /**
+     * Serves the delta since dataVersion from the shared response cache,
+     * or 304 if the client already holds it.
+     */
+    @GetMapping("/houses")
+    public ResponseEntity<byte[]> getUpdates(@RequestParam(defaultValue = "0") Integer dataVersion,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        long currentVersion = houseStore.getCurrentVersion();
+
+        return responseCache.respond("houses", dataVersion, Math.toIntExact(currentVersion), ifNoneMatch,
+                () -> toCacheDelta(dataVersion, houseStore.changesBetween(dataVersion, currentVersion)));
     }
 
     /**
@@ -80,62 +100,47 @@ public class StatefulHouseController implements VersionedExternalService<House,
      * Returns updated houses, deleted house IDs, and next data version.
      */
     @Override
-    @GetMapping("/houses")
-    public CacheDelta<House, Integer> fetchUpdates(@RequestParam(defaultValue = "0") Integer dataVersion) {
-        List<House> updated = houseStore.values().stream()
-                .filter(h -> h.getDataVersion() > dataVersion)
-                .collect(Collectors.toList());
-
-        List<String> deleted = deletedHouses.entrySet().stream()
-                .filter(e -> e.getValue() > dataVersion)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+    public CacheDelta<House, Integer> fetchUpdates(Integer dataVersion) {
+        return toCacheDelta(dataVersion, houseStore.changesSince(dataVersion));
+    }
 
-        int nextVersion = currentVersion.get();
+    private CacheDelta<House, Integer> toCacheDelta(Integer dataVersion, StoreDelta<House> changes) {
+        int nextVersion = Math.toIntExact(changes.version());
 
-        System.out.printf("Fetch request with version %d: returning %d updated and %d deleted entities, nextVersion=%d%n",
-                dataVersion, updated.size(), deleted.size(), nextVersion);
+        log.debug("Fetch request with version {}: returning {} updated and {} deleted entities, nextVersion={}",
+                dataVersion, changes.updated().size(), changes.deleted().size(), nextVersion);
 
-        simulateChanges();
+        return new CacheDelta<>(changes.updated(), changes.deleted(), nextVersion);
+    }
 
-        return new CacheDelta<>(updated, deleted, nextVersion);
+    @Override
+    @GetMapping("/houses/digests")
+    public List<RangeDigest<Integer>> fetchDigests(@RequestParam(required = false) Integer from,
+                                                   @RequestParam(required = false) Integer to,
+                                                   @RequestParam(defaultValue = "16") int parts) {
+        return houseStore.digestsBetween(from != null ? from : 0, to != null ? to : Long.MAX_VALUE, parts,
+                from, to, Math::toIntExact);
     }
 
-    /**
-     * Scheduled task runs every 5 seconds and performs 1-3 random simulation steps.
-     * Simulation steps: add new house, update existing house, delete existing house.
-     */
-    public void simulateChanges() {
-        int changesCount = random.nextInt(3) + 1; // 1 to 3 changes per run
-
-        for (int i = 0; i < changesCount; i++) {
-            int action = random.nextInt(3);
-            switch (action) {
-                case 0 -> addRandomHouse();
-                case 1 -> updateRandomHouse();
-                case 2 -> deleteRandomHouse();
-            }
-        }
+    @Override
+    @GetMapping("/houses/range")
+    public List<House> fetchRange(@RequestParam(required = false) Integer from,
+                                  @RequestParam(required = false) Integer to) {
+        return houseStore.liveBetween(from != null ? from : 0, to != null ? to : Long.MAX_VALUE);
     }
 
-    private void addRandomHouse() {
-        String id = "h" + (houseStore.size() + deletedHouses.size() + 1 + random.nextInt(1000));
-        List<Long> persons = randomSample(possiblePersonIds, random.nextInt(5) + 1);
-        addOrUpdateHouse(new House(id, persons, 0));
+    @Override
+    public long keySpace() {
+        return houseCount;
     }
 
-    private void updateRandomHouse() {
-        if (houseStore.isEmpty()) return;
-        List<String> keys = new ArrayList<>(houseStore.keySet());
-        String id = keys.get(random.nextInt(keys.size()));
-        List<Long> persons = randomSample(possiblePersonIds, random.nextInt(5) + 1);
-        addOrUpdateHouse(new House(id, persons, 0));
+    @Override
+    public void upsert(long key, Random random) {
+        addOrUpdateHouse(new House(houseId(key), randomPersonIds(random), 0));
     }
 
-    private void deleteRandomHouse() {
-        if (houseStore.isEmpty()) return;
-        List<String> keys = new ArrayList<>(houseStore.keySet());
-        String id = keys.get(random.nextInt(keys.size()));
-        deleteHouse(id);
+    @Override
+    public boolean delete(long key) {
+        return deleteHouse(houseId(key));
     }
-}
\ No newline at end of file
+}
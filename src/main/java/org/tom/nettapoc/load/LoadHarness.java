@@ -0,0 +1,51 @@
+package org.tom.nettapoc.load;
+
+import org.tom.nettapoc.generic.VersionedSyncClient;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * End-to-end throughput/latency test: interleaves workload ticks with a sync round
+ * of every client, so a run with a fixed seed is fully repeatable.
+ */
+public class LoadHarness {
+
+    private final WorkloadGenerator generator;
+    private final List<VersionedSyncClient<?, ?>> clients;
+
+    public LoadHarness(WorkloadGenerator generator, List<VersionedSyncClient<?, ?>> clients) {
+        this.generator = generator;
+        this.clients = List.copyOf(clients);
+    }
+
+    public LoadReport run(int ticks) {
+        long[] latencies = new long[ticks * clients.size()];
+        long changes = 0;
+        long entitiesSynced = 0;
+        int syncs = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            changes += generator.tick();
+
+            for (VersionedSyncClient<?, ?> client : clients) {
+                long syncStart = System.nanoTime();
+                entitiesSynced += client.syncOnce();
+                latencies[syncs++] = System.nanoTime() - syncStart;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new LoadReport(changes, syncs, entitiesSynced, Duration.ofNanos(elapsed),
+                percentile(latencies, 0.50), percentile(latencies, 0.99));
+    }
+
+    private static Duration percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Duration.ZERO;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(0, index)]);
+    }
+}
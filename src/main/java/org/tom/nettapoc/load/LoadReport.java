@@ -0,0 +1,27 @@
+package org.tom.nettapoc.load;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a {@link LoadHarness} run.
+ *
+ * @param changes        mutations applied to the upstreams
+ * @param syncs          sync round-trips performed by all clients
+ * @param entitiesSynced updated and deleted entities received by all clients
+ * @param elapsed        wall-clock duration of the run
+ * @param syncLatencyP50 median latency of one sync round-trip
+ * @param syncLatencyP99 99th percentile latency of one sync round-trip
+ */
+public record LoadReport(
+        long changes,
+        long syncs,
+        long entitiesSynced,
+        Duration elapsed,
+        Duration syncLatencyP50,
+        Duration syncLatencyP99
+) {
+
+    public double entitiesSyncedPerSecond() {
+        return elapsed.isZero() ? 0 : entitiesSynced * 1_000_000_000.0 / elapsed.toNanos();
+    }
+}
@@ -0,0 +1,24 @@
+package org.tom.nettapoc.load;
+
+import java.util.Random;
+
+/**
+ * Upstream service whose data can be mutated by the {@link WorkloadGenerator}.
+ * Keys are dense ranks in [0, keySpace()); each upstream maps them to its own ids.
+ */
+public interface SimulatedUpstream {
+
+    long keySpace();
+
+    /**
+     * Adds the entity for the given key, or updates it if it already exists.
+     */
+    void upsert(long key, Random random);
+
+    /**
+     * Deletes the entity for the given key; no-op if it does not exist.
+     *
+     * @return false if there was no live entity for that key
+     */
+    boolean delete(long key);
+}
@@ -0,0 +1,122 @@
+package org.tom.nettapoc.load;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutates the simulated upstreams at a target rate on its own scheduler,
+ * independently of the fetch requests.
+ * <p>
+ * Every tick makes {@code changesPerSecond * tickMillis / 1000} mutation attempts (fractions carry over
+ * to the next tick). Each attempt picks an upstream uniformly, a key by Zipfian rank, and deletes
+ * with probability {@code deleteRatio}, otherwise upserts. Deleting an already deleted key changes
+ * nothing and is not counted, so hot keys make the effective delete ratio lower than configured. Stepping {@link #tick()} manually with
+ * the same seed replays the exact same mutation sequence.
+ */
+@Component
+public class WorkloadGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkloadGenerator.class);
+
+    private final WorkloadProperties properties;
+    private final List<SimulatedUpstream> upstreams;
+    private final List<ZipfianGenerator> keyGenerators = new ArrayList<>();
+    private final Random random;
+    private final double changesPerTick;
+
+    private final AtomicLong upserts = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+
+    private double pendingChanges;
+    private ScheduledExecutorService scheduler;
+
+    public WorkloadGenerator(WorkloadProperties properties, List<SimulatedUpstream> upstreams) {
+        if (properties.deleteRatio() < 0 || properties.deleteRatio() > 1) {
+            throw new IllegalArgumentException("Delete ratio must be in [0, 1], got " + properties.deleteRatio());
+        }
+
+        this.properties = properties;
+        this.upstreams = List.copyOf(upstreams);
+        this.random = new Random(properties.seed());
+        this.changesPerTick = properties.changesPerSecond() * properties.tickMillis() / 1000.0;
+        this.upstreams.forEach(u -> keyGenerators.add(new ZipfianGenerator(u.keySpace(), properties.zipfSkew())));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.enabled() || upstreams.isEmpty()) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "workload-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                log.error("Workload tick failed", e);
+            }
+        }, properties.tickMillis(), properties.tickMillis(), TimeUnit.MILLISECONDS);
+        log.info("Workload started: {} changes/s over {} upstreams, zipf={}, deleteRatio={}",
+                properties.changesPerSecond(), upstreams.size(), properties.zipfSkew(), properties.deleteRatio());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Performs one tick worth of mutation attempts.
+     *
+     * @return number of mutations that changed an upstream
+     */
+    public synchronized int tick() {
+        pendingChanges += changesPerTick;
+        int attempts = (int) pendingChanges;
+        pendingChanges -= attempts;
+
+        int changes = 0;
+        for (int i = 0; i < attempts; i++) {
+            int target = random.nextInt(upstreams.size());
+            long key = keyGenerators.get(target).next(random);
+
+            if (random.nextDouble() < properties.deleteRatio()) {
+                if (upstreams.get(target).delete(key)) {
+                    deletes.incrementAndGet();
+                    changes++;
+                }
+            } else {
+                upstreams.get(target).upsert(key, random);
+                upserts.incrementAndGet();
+                changes++;
+            }
+        }
+
+        log.debug("Workload tick: {} changes, {} upserts and {} deletes so far", changes, upserts.get(), deletes.get());
+        return changes;
+    }
+
+    public long getUpserts() {
+        return upserts.get();
+    }
+
+    public long getDeletes() {
+        return deletes.get();
+    }
+}
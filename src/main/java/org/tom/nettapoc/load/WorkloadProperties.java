@@ -0,0 +1,28 @@
+package org.tom.nettapoc.load;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Synthetic workload applied to the simulated upstream services.
+ *
+ * @param enabled          whether the scheduler runs at all
+ * @param personCount      size of the person key space, all populated at startup
+ * @param houseCount       size of the house key space, all populated at startup
+ * @param changesPerSecond target mutation rate across all upstreams
+ * @param zipfSkew         Zipfian exponent in [0, 1); 0 is uniform, 0.99 is heavily skewed
+ * @param deleteRatio      fraction of mutations that delete instead of upsert
+ * @param tickMillis       scheduler period
+ * @param seed             seed for population and mutations
+ */
+@ConfigurationProperties("workload")
+public record WorkloadProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1000") long personCount,
+        @DefaultValue("20") long houseCount,
+        @DefaultValue("2") double changesPerSecond,
+        @DefaultValue("0.99") double zipfSkew,
+        @DefaultValue("0.33") double deleteRatio,
+        @DefaultValue("1000") long tickMillis,
+        @DefaultValue("123456789") long seed
+) {}
@@ -0,0 +1,50 @@
+package org.tom.nettapoc.load;
+
+import java.util.Random;
+
+/**
+ * Draws ranks in [0, items) following a Zipfian distribution, rank 0 being the hottest.
+ * <p>
+ * Uses the constant-time inversion from Gray et al., "Quickly Generating Billion-Record
+ * Synthetic Databases" (as in YCSB); only construction is linear in the number of items.
+ */
+public class ZipfianGenerator {
+
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    public ZipfianGenerator(long items, double theta) {
+        if (items < 1) {
+            throw new IllegalArgumentException("Item count must be positive, got " + items);
+        }
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("Zipf skew must be in [0, 1), got " + theta);
+        }
+
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+
+        if (uz < 1.0) return 0;
+        if (uz < 1.0 + Math.pow(0.5, theta)) return Math.min(1, items - 1);
+        return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
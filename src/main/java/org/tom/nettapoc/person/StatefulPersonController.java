@@ -1,127 +1,137 @@
 package org.tom.nettapoc.person;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.tom.nettapoc.generic.ConcurrentVersionedStore;
+import org.tom.nettapoc.generic.RangeDigest;
 import org.tom.nettapoc.generic.VersionedExternalService;
 import org.tom.nettapoc.generic.CacheDelta;
+import org.tom.nettapoc.generic.StoreDelta;
+import org.tom.nettapoc.load.SimulatedUpstream;
+import org.tom.nettapoc.load.WorkloadProperties;
+import org.tom.nettapoc.web.DeltaResponseCache;
 
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
-import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.Random;
 
 @RestController
 @Component
-public class StatefulPersonController implements VersionedExternalService<Person, String> {
+public class StatefulPersonController implements VersionedExternalService<Person, String>, SimulatedUpstream {
 
-    private final AtomicReference<Instant> currentVersion = new AtomicReference<>(Instant.EPOCH);
-    private final Map<Long, Person> personStore = new HashMap<>();
-    private final Map<Long, Instant> deletedPersons = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(StatefulPersonController.class);
 
-    private final Random random;
+    private static final long FIRST_PERSON_ID = 1000;
+    private static final String[] FIRST_NAMES = {"Alice", "Bob", "Carol", "Dave", "Eve", "Frank", "Grace", "Hank", "Ivy", "Jack"};
+    private static final String[] LAST_NAMES = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis"};
 
-    public StatefulPersonController() {
-        long seed = 123456789L; // Fixed seed for reproducibility
-        this.random = new Random(seed);
-        init();
+    private final ConcurrentVersionedStore<Person> personStore = new ConcurrentVersionedStore<>();
+
+    private final DeltaResponseCache responseCache;
+    private final long personCount;
+
+    public StatefulPersonController(WorkloadProperties properties, DeltaResponseCache responseCache) {
+        this.responseCache = responseCache;
+        this.personCount = properties.personCount();
+        init(new Random(properties.seed()));
     }
 
-    public void init() {
-        for (long i = 1000; i < 2000; i++) {
-            String name = randomName();
-            addOrUpdatePerson(new Person(i, name, Instant.EPOCH));
+    private void init(Random random) {
+        for (long key = 0; key < personCount; key++) {
+            upsert(key, random);
         }
     }
 
-    private String randomName() {
-        String[] firstNames = {"Alice", "Bob", "Carol", "Dave", "Eve", "Frank", "Grace", "Hank", "Ivy", "Jack"};
-        String[] lastNames = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis"};
-        return firstNames[random.nextInt(firstNames.length)] + " " + lastNames[random.nextInt(lastNames.length)];
+    private static String randomName(Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
     }
 
-    private Instant nextVersion() {
-        return currentVersion.updateAndGet(v -> v.plus(1, ChronoUnit.DAYS));
+    /**
+     * Store versions map to one second past the epoch each, so millions of changes
+     * keep fixed-width ISO-8601 versions that also sort as strings.
+     */
+    private static Instant toInstant(long version) {
+        return Instant.EPOCH.plusSeconds(version);
     }
 
     public void addOrUpdatePerson(Person person) {
-        Instant newVersion = nextVersion();
         Long id = Long.valueOf(person.getId());
-        Person updatedPerson = new Person(id, person.getName(), newVersion);
-        personStore.put(id, updatedPerson);
-        deletedPersons.remove(id);
-
-        System.out.printf("[Version %s] Added/Updated person %d (%s)%n", newVersion, updatedPerson.getId(), updatedPerson.getName());
+        personStore.upsert(person.getId(), version -> new Person(id, person.getName(), toInstant(version)));
     }
 
-    public void deletePerson(Long personId) {
-        if (personStore.containsKey(personId)) {
-            personStore.remove(personId);
-            Instant newVersion = nextVersion();
-            deletedPersons.put(personId, newVersion);
-            System.out.printf("[Version %s] Deleted person %d%n", newVersion, personId);
-        }
+    public boolean deletePerson(Long personId) {
+        return personStore.delete(personId.toString());
     }
 
-    @Override
+    /**
+     * Serves the delta since dataVersionStr from the shared response cache,
+     * or 304 if the client already holds it.
+     */
     @GetMapping("/persons")
-    public CacheDelta<Person, String> fetchUpdates(@RequestParam(defaultValue = "1970-01-01T00:00:00Z") String dataVersionStr) {
+    public ResponseEntity<byte[]> getUpdates(@RequestParam(defaultValue = "1970-01-01T00:00:00Z") String dataVersionStr,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Instant dataVersion = Instant.parse(dataVersionStr);
+        long currentVersion = personStore.getCurrentVersion();
 
-        List<Person> updated = personStore.values().stream()
-                .filter(p -> Instant.parse(p.getDataVersion()).isAfter(dataVersion))
-                .collect(Collectors.toList());
+        return responseCache.respond("persons", dataVersion, toInstant(currentVersion), ifNoneMatch,
+                () -> toCacheDelta(dataVersionStr, personStore.changesBetween(dataVersion.getEpochSecond(), currentVersion)));
+    }
 
-        List<String> deleted = deletedPersons.entrySet().stream()
-                .filter(e -> e.getValue().isAfter(dataVersion))
-                .map(e -> e.getKey().toString())
-                .collect(Collectors.toList());
+    @Override
+    public CacheDelta<Person, String> fetchUpdates(String dataVersionStr) {
+        long dataVersion = Instant.parse(dataVersionStr).getEpochSecond();
+        return toCacheDelta(dataVersionStr, personStore.changesSince(dataVersion));
+    }
 
-        Instant nextVer = currentVersion.get();
-        String nextVerStr = DateTimeFormatter.ISO_INSTANT.format(nextVer);
+    private CacheDelta<Person, String> toCacheDelta(String dataVersionStr, StoreDelta<Person> changes) {
+        String nextVerStr = DateTimeFormatter.ISO_INSTANT.format(toInstant(changes.version()));
 
-        System.out.printf("Fetch persons since %s: %d updated, %d deleted, nextVersion=%s%n",
-                dataVersionStr, updated.size(), deleted.size(), nextVerStr);
+        log.debug("Fetch persons since {}: {} updated, {} deleted, nextVersion={}",
+                dataVersionStr, changes.updated().size(), changes.deleted().size(), nextVerStr);
 
-        simulateChanges();
+        return new CacheDelta<>(changes.updated(), changes.deleted(), nextVerStr);
+    }
 
-        return new CacheDelta<>(updated, deleted, nextVerStr);
+    @Override
+    @GetMapping("/persons/digests")
+    public List<RangeDigest<String>> fetchDigests(@RequestParam(required = false) String from,
+                                                  @RequestParam(required = false) String to,
+                                                  @RequestParam(defaultValue = "16") int parts) {
+        return personStore.digestsBetween(toStoreVersion(from, 0), toStoreVersion(to, Long.MAX_VALUE), parts,
+                from, to, version -> toInstant(version).toString());
     }
 
-    public void simulateChanges() {
-        int changesCount = random.nextInt(3) + 1;
+    @Override
+    @GetMapping("/persons/range")
+    public List<Person> fetchRange(@RequestParam(required = false) String from,
+                                   @RequestParam(required = false) String to) {
+        return personStore.liveBetween(toStoreVersion(from, 0), toStoreVersion(to, Long.MAX_VALUE));
+    }
 
-        for (int i = 0; i < changesCount; i++) {
-            int action = random.nextInt(3);
-            switch (action) {
-                case 0 -> addRandomPerson();
-                case 1 -> updateRandomPerson();
-                case 2 -> deleteRandomPerson();
-            }
-        }
+    private static long toStoreVersion(String version, long openBound) {
+        return version != null ? Instant.parse(version).getEpochSecond() : openBound;
     }
 
-    private void addRandomPerson() {
-        long id = 2000 + random.nextInt(1000);
-        String name = randomName();
-        addOrUpdatePerson(new Person(id, name, Instant.EPOCH));
+    @Override
+    public long keySpace() {
+        return personCount;
     }
 
-    private void updateRandomPerson() {
-        if (personStore.isEmpty()) return;
-        List<Long> keys = new ArrayList<>(personStore.keySet());
-        long id = keys.get(random.nextInt(keys.size()));
-        String name = randomName();
-        addOrUpdatePerson(new Person(id, name, Instant.EPOCH));
+    @Override
+    public void upsert(long key, Random random) {
+        addOrUpdatePerson(new Person(FIRST_PERSON_ID + key, randomName(random), Instant.EPOCH));
     }
 
-    private void deleteRandomPerson() {
-        if (personStore.isEmpty()) return;
-        List<Long> keys = new ArrayList<>(personStore.keySet());
-        long id = keys.get(random.nextInt(keys.size()));
-        deletePerson(id);
+    @Override
+    public boolean delete(long key) {
+        return deletePerson(FIRST_PERSON_ID + key);
     }
 }
@@ -0,0 +1,182 @@
+package org.tom.nettapoc.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Serialized delta responses shared by all clients polling with the same cursor.
+ * <p>
+ * Entries are keyed by (endpoint, fromVersion, currentVersion), so they never go stale;
+ * once an endpoint's version advances, entries for older versions are dropped.
+ * Concurrent requests for the same key wait for a single computation, which runs outside
+ * any map lock: on JDK 21 a virtual thread blocked on a monitor pins its carrier thread,
+ * so a herd of pollers parked in {@code computeIfAbsent} could stall the whole server.
+ * <p>
+ * The cache holds at most {@code delta-cache.max-entries} responses and {@code delta-cache.max-bytes}
+ * serialized bytes; a response that does not fit is served uncached.
+ * <p>
+ * Every response carries a weak ETag derived from the key, so a client repeating a poll
+ * that returned nothing new gets a 304 without the delta being computed at all.
+ */
+@Component
+public class DeltaResponseCache {
+
+    private record Key(String endpoint, Object fromVersion, Object currentVersion) {
+        String eTag() {
+            return "W/\"" + endpoint + "-" + fromVersion + "-" + currentVersion + "\"";
+        }
+    }
+
+    /**
+     * A response being computed or computed. Its size counts against the byte budget from the moment
+     * it is accounted until whichever of the removal paths releases it first.
+     */
+    private static final class Entry {
+        final CompletableFuture<byte[]> body = new CompletableFuture<>();
+        final AtomicBoolean accounted = new AtomicBoolean();
+    }
+
+    private final ObjectMapper objectMapper;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final Map<Key, Entry> responses = new ConcurrentHashMap<>();
+    private final Map<String, Object> latestVersionByEndpoint = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    public DeltaResponseCache(ObjectMapper objectMapper,
+                              @Value("${delta-cache.max-entries:256}") int maxEntries,
+                              @Value("${delta-cache.max-bytes:67108864}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param ifNoneMatch value of the If-None-Match request header, may be null
+     * @param delta       computes the delta between the two versions; called at most once per cached key
+     */
+    public <V extends Comparable<V>> ResponseEntity<byte[]> respond(String endpoint, V fromVersion, V currentVersion,
+                                                                    String ifNoneMatch, Supplier<?> delta) {
+        Key key = new Key(endpoint, fromVersion, currentVersion);
+        String eTag = key.eTag();
+
+        if (matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(lookup(key, currentVersion, delta));
+    }
+
+    /**
+     * Serialized bytes currently held.
+     */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V extends Comparable<V>> byte[] lookup(Key key, V currentVersion, Supplier<?> delta) {
+        boolean[] advanced = new boolean[1];
+        Object latest = latestVersionByEndpoint.compute(key.endpoint(), (endpoint, old) -> {
+            if (old != null && ((V) old).compareTo(currentVersion) >= 0) return old;
+            advanced[0] = true;
+            return currentVersion;
+        });
+        if (advanced[0]) {
+            responses.entrySet().removeIf(e -> e.getKey().endpoint().equals(key.endpoint())
+                    && ((V) e.getKey().currentVersion()).compareTo(currentVersion) < 0
+                    && release(e.getValue()));
+        }
+
+        Entry cached = responses.get(key);
+        if (cached != null) return await(cached.body);
+
+        // Requests racing a version advance, or arriving while full, are served uncached.
+        if (!latest.equals(currentVersion) || responses.size() >= maxEntries) {
+            return serialize(delta.get());
+        }
+
+        Entry entry = new Entry();
+        Entry existing = responses.putIfAbsent(key, entry);
+        if (existing != null) return await(existing.body);
+
+        byte[] body;
+        try {
+            body = serialize(delta.get());
+        } catch (RuntimeException e) {
+            // Failures are not cached: waiters get this one, later requests compute again.
+            responses.remove(key, entry);
+            entry.body.completeExceptionally(e);
+            throw e;
+        }
+
+        entry.body.complete(body);
+        long total = cachedBytes.addAndGet(body.length);
+        entry.accounted.set(true);
+        // Over budget, or dropped by a version advance while being computed.
+        if (total > maxBytes || responses.get(key) != entry) {
+            responses.remove(key, entry);
+            release(entry);
+        }
+        return body;
+    }
+
+    /**
+     * Returns the entry's bytes to the budget, once.
+     *
+     * @return true, so that it can be chained into a removal predicate
+     */
+    private boolean release(Entry entry) {
+        if (entry.accounted.compareAndSet(true, false)) {
+            cachedBytes.addAndGet(-entry.body.join().length);
+        }
+        return true;
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> computation) {
+        try {
+            return computation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private byte[] serialize(Object delta) {
+        try {
+            return objectMapper.writeValueAsBytes(delta);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize delta", e);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) return false;
+
+        String opaqueTag = eTag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(eTag) || tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
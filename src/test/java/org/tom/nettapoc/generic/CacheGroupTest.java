@@ -0,0 +1,116 @@
+package org.tom.nettapoc.generic;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheGroupTest {
+
+    private CacheGroup group;
+    private VersionedCache<TestEntity, Integer> houses;
+    private VersionedCache<TestEntity, Integer> persons;
+
+    @BeforeEach
+    void setUp() {
+        group = new CacheGroup();
+        houses = new VersionedCache<>();
+        persons = new VersionedCache<>();
+    }
+
+    private static CacheDelta<TestEntity, Integer> delta(TestEntity entity) {
+        return new CacheDelta<>(List.of(entity), null, entity.getDataVersion());
+    }
+
+    @Test
+    void testCommitAppliesAllDeltasUnderOneVersion() {
+        long version = group.begin()
+                .add(houses, delta(new TestEntity("h1", "p1", 1)))
+                .add(persons, delta(new TestEntity("p1", "Alice", 1)))
+                .commit();
+
+        assertEquals(1, version);
+        assertEquals(1, houses.getCommitVersion());
+        assertEquals(1, persons.getCommitVersion());
+        assertEquals("Alice", persons.getById("p1").getValue());
+        assertEquals("p1", houses.getById("h1").getValue());
+    }
+
+    @Test
+    void testRejectedDeltaAppliesNothing() {
+        persons.applyDeltaToCache(delta(new TestEntity("p0", "Bob", 10)));
+
+        CacheGroup.Transaction transaction = group.begin()
+                .add(houses, delta(new TestEntity("h1", "p1", 5)))
+                .add(persons, delta(new TestEntity("p1", "Alice", 5)));
+
+        assertThrows(IllegalArgumentException.class, transaction::commit);
+        assertNull(houses.getById("h1"));
+        assertNull(persons.getById("p1"));
+        assertEquals(0, group.getCommitVersion());
+    }
+
+    @Test
+    void testTransactionIsSingleUse() {
+        CacheGroup.Transaction transaction = group.begin().add(houses, delta(new TestEntity("h1", "p1", 1)));
+        transaction.commit();
+        assertThrows(IllegalStateException.class, transaction::commit);
+    }
+
+    @Test
+    void testSameCacheTwiceRejected() {
+        CacheGroup.Transaction transaction = group.begin().add(houses, delta(new TestEntity("h1", "p1", 1)));
+        assertThrows(IllegalArgumentException.class, () -> transaction.add(houses, delta(new TestEntity("h2", "p2", 2))));
+    }
+
+    @Test
+    void testReorderingCacheRejected() {
+        VersionedCache<TestEntity, Integer> reordering =
+                VersionedCache.<TestEntity, Integer>builder().initialVersion(0).reorderBuffer(true).build();
+        reordering.applyDeltaToCache(10, new CacheDelta<>(List.of(new TestEntity("y", "new", 12)), null, 15));
+
+        CacheGroup.Transaction transaction = group.begin();
+        assertThrows(IllegalArgumentException.class,
+                () -> transaction.add(reordering, new CacheDelta<>(List.of(new TestEntity("y", "old", 3)), null, 5)));
+
+        assertEquals("new", reordering.getById("y").getValue());
+        assertEquals(0, reordering.getCurrentVersion());
+        assertEquals(1, reordering.getPendingDeltaCount());
+    }
+
+    @Test
+    void testSnapshotNeverSeesHouseWithoutItsPerson() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 1; i <= 2_000; i++) {
+                group.begin()
+                        .add(houses, delta(new TestEntity("h" + i, "p" + i, i)))
+                        .add(persons, delta(new TestEntity("p" + i, "Person " + i, i)))
+                        .commit();
+            }
+            writing.set(false);
+        });
+
+        Future<?> reader = executor.submit(() -> {
+            while (writing.get()) {
+                CacheGroup.Snapshot<Boolean> snapshot = group.read(
+                        () -> houses.getDelta(0).data().stream().allMatch(h -> persons.getById(h.getValue()) != null),
+                        houses, persons);
+                assertTrue(snapshot.value(), "House observed before its person at " + snapshot.commitVersion());
+            }
+        });
+
+        writer.get();
+        reader.get();
+        executor.shutdown();
+        assertEquals(2_000, group.getCommitVersion());
+    }
+}
@@ -0,0 +1,143 @@
+package org.tom.nettapoc.generic;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheReconcilerTest {
+
+    private static class StoreService implements VersionedExternalService<TestEntity, Integer> {
+
+        private final ConcurrentVersionedStore<TestEntity> store = new ConcurrentVersionedStore<>();
+
+        void upsert(String id, String value) {
+            store.upsert(id, version -> new TestEntity(id, value, (int) version));
+        }
+
+        @Override
+        public CacheDelta<TestEntity, Integer> fetchUpdates(Integer dataVersion) {
+            StoreDelta<TestEntity> changes = store.changesSince(dataVersion);
+            return new CacheDelta<>(changes.updated(), changes.deleted(), (int) changes.version());
+        }
+
+        @Override
+        public List<RangeDigest<Integer>> fetchDigests(Integer fromVersion, Integer toVersion, int parts) {
+            return RangeDigest.split(fromVersion, toVersion, parts, RangeDigest.indexByVersion(fetchRange(fromVersion, toVersion)));
+        }
+
+        @Override
+        public List<TestEntity> fetchRange(Integer fromVersion, Integer toVersion) {
+            return store.liveBetween(fromVersion != null ? fromVersion : 0, toVersion != null ? toVersion : Long.MAX_VALUE);
+        }
+    }
+
+    private StoreService upstream;
+    private VersionedCache<TestEntity, Integer> cache;
+
+    @BeforeEach
+    void setUp() {
+        upstream = new StoreService();
+        cache = new VersionedCache<>();
+        for (int i = 0; i < 10_000; i++) {
+            upstream.upsert(String.valueOf(i), "v" + i);
+        }
+        cache.applyDeltaToCache(upstream.fetchUpdates(0));
+    }
+
+    private CacheReconciler<TestEntity, Integer> reconciler() {
+        return new CacheReconciler<>(upstream, cache, 4, 8);
+    }
+
+    private void assertInSync() {
+        assertTrue(upstream.fetchDigests(null, null, 1).get(0).matches(cache.getDigest(null, null)));
+    }
+
+    @Test
+    void testInSyncCacheNeedsTwoRoundTrips() {
+        CacheReconciler.Result result = reconciler().reconcile();
+
+        assertEquals(2, result.roundTrips());
+        assertEquals(0, result.repairedRanges());
+    }
+
+    @Test
+    void testDigestsMatchUpstreamSplit() {
+        List<RangeDigest<Integer>> upstreamDigests = upstream.fetchDigests(null, null, 4);
+        List<RangeDigest<Integer>> localDigests = cache.getDigests(null, null, 4);
+
+        assertEquals(4, upstreamDigests.size());
+        assertEquals(upstreamDigests, localDigests);
+        assertEquals(10_000, upstreamDigests.stream().mapToInt(RangeDigest::count).sum());
+    }
+
+    @Test
+    void testMissedDeleteIsRepaired() {
+        Integer cursor = cache.getCurrentVersion();
+        upstream.store.delete("42");
+        CacheDelta<TestEntity, Integer> delta = upstream.fetchUpdates(cursor);
+        cache.applyDeltaToCache(new CacheDelta<>(delta.data(), List.of(), delta.nextDataVersion()));
+        assertNotNull(cache.getById("42"));
+
+        CacheReconciler.Result result = reconciler().reconcile();
+
+        assertNull(cache.getById("42"));
+        assertTrue(cache.getDelta(cursor).deleted().contains("42"));
+        assertEquals(1, result.repairedRanges());
+        assertTrue(result.roundTrips() < 20, "Took " + result.roundTrips() + " round trips");
+        assertInSync();
+    }
+
+    @Test
+    void testStaleAndMissingEntitiesAreRepaired() {
+        Integer cursor = cache.getCurrentVersion();
+        upstream.upsert("7", "updated");
+        upstream.upsert("new", "added");
+        cache.applyDeltaToCache(new CacheDelta<>(List.of(), List.of(), upstream.fetchUpdates(cursor).nextDataVersion()));
+
+        reconciler().reconcile();
+
+        assertEquals("updated", cache.getById("7").getValue());
+        assertEquals("added", cache.getById("new").getValue());
+        assertInSync();
+    }
+
+    @Test
+    void testUpstreamAdvanceIsLeftToDeltaSync() {
+        Integer cursor = cache.getCurrentVersion();
+        upstream.upsert("7", "updated");
+        upstream.upsert("new", "added");
+        upstream.store.delete("42");
+
+        CacheReconciler.Result result = reconciler().reconcile();
+
+        assertEquals(0, result.repairedRanges());
+        assertEquals("v7", cache.getById("7").getValue());
+        assertNull(cache.getById("new"));
+        assertNotNull(cache.getById("42"));
+        assertTrue(cache.getDelta(cursor + 1).data().isEmpty());
+        assertTrue(cache.getDelta(cursor + 1).deleted().isEmpty());
+
+        cache.applyDeltaToCache(upstream.fetchUpdates(cursor));
+        assertInSync();
+    }
+
+    @Test
+    void testRepairKeepsEntitiesThatAdvancedUpstream() {
+        Integer cursor = cache.getCurrentVersion();
+        upstream.store.delete("42");
+        CacheDelta<TestEntity, Integer> delta = upstream.fetchUpdates(cursor);
+        cache.applyDeltaToCache(new CacheDelta<>(delta.data(), List.of(), delta.nextDataVersion()));
+        Integer synced = cache.getCurrentVersion();
+        upstream.upsert("43", "updated");
+
+        CacheReconciler.Result result = reconciler().reconcile();
+
+        assertEquals(1, result.repairedRanges());
+        assertNull(cache.getById("42"));
+        assertEquals("v43", cache.getById("43").getValue());
+        assertEquals(List.of("42"), cache.getDelta(synced).deleted());
+    }
+}
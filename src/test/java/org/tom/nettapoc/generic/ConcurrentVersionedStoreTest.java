@@ -0,0 +1,149 @@
+package org.tom.nettapoc.generic;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentVersionedStoreTest {
+
+    private ConcurrentVersionedStore<TestEntity> store;
+
+    @BeforeEach
+    void setUp() {
+        store = new ConcurrentVersionedStore<>();
+    }
+
+    private long upsert(String id, String value) {
+        return store.upsert(id, version -> new TestEntity(id, value, (int) version));
+    }
+
+    @Test
+    void testUpsertAllocatesIncreasingVersions() {
+        assertEquals(1, upsert("1", "A"));
+        assertEquals(2, upsert("2", "B"));
+        assertEquals(3, upsert("1", "C"));
+        assertEquals(3, store.getCurrentVersion());
+
+        StoreDelta<TestEntity> delta = store.changesSince(0);
+        assertEquals(2, delta.updated().size());
+        assertTrue(delta.updated().stream().anyMatch(e -> e.getValue().equals("C")));
+        assertEquals(3, delta.version());
+    }
+
+    @Test
+    void testChangesSinceIsExclusive() {
+        upsert("1", "A");
+        upsert("2", "B");
+
+        StoreDelta<TestEntity> delta = store.changesSince(1);
+        assertEquals(1, delta.updated().size());
+        assertEquals("2", delta.updated().get(0).getId());
+    }
+
+    @Test
+    void testDeleteRecordsTombstoneOnlyForLiveIds() {
+        upsert("1", "A");
+
+        assertTrue(store.delete("1"));
+        assertFalse(store.delete("1"));
+        assertFalse(store.delete("missing"));
+
+        StoreDelta<TestEntity> delta = store.changesSince(0);
+        assertTrue(delta.updated().isEmpty());
+        assertEquals(List.of("1"), delta.deleted());
+        assertEquals(2, delta.version());
+    }
+
+    @Test
+    void testReAddAfterDeleteClearsTombstone() {
+        upsert("1", "A");
+        store.delete("1");
+        upsert("1", "B");
+
+        StoreDelta<TestEntity> delta = store.changesSince(0);
+        assertTrue(delta.deleted().isEmpty());
+        assertEquals("B", delta.updated().get(0).getValue());
+    }
+
+    @Test
+    void testChangesBetweenRejectsUnpublishedVersion() {
+        upsert("1", "A");
+        assertThrows(IllegalArgumentException.class, () -> store.changesBetween(0, 2));
+    }
+
+    @Test
+    void testDigestsMatchLiveEntities() {
+        upsert("1", "A");
+        upsert("2", "B");
+        upsert("3", "C");
+        upsert("1", "D");
+        store.delete("2");
+        upsert("4", "E");
+
+        List<RangeDigest<Integer>> digests = store.digestsBetween(2, Long.MAX_VALUE, 2, 2, null, Math::toIntExact);
+
+        assertEquals(RangeDigest.split(2, null, 2, RangeDigest.indexByVersion(store.liveBetween(2, Long.MAX_VALUE))),
+                digests);
+        assertEquals(3, digests.stream().mapToInt(RangeDigest::count).sum());
+        assertEquals(2, digests.getFirst().from());
+        assertNull(digests.getLast().to());
+    }
+
+    @Test
+    void testConcurrentWritersAndPollerConverge() throws Exception {
+        int writers = 8;
+        int changesPerWriter = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Map<String, TestEntity> replica = new HashMap<>();
+
+        Future<?> poller = executor.submit(() -> {
+            long cursor = 0;
+            boolean lastRound = false;
+            while (!lastRound) {
+                lastRound = !writing.get();
+                StoreDelta<TestEntity> delta = store.changesSince(cursor);
+                delta.updated().forEach(e -> replica.put(e.getId(), e));
+                delta.deleted().forEach(replica::remove);
+                cursor = delta.version();
+            }
+        });
+
+        Future<?>[] tasks = new Future<?>[writers];
+        for (int w = 0; w < writers; w++) {
+            tasks[w] = executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < changesPerWriter; i++) {
+                    String id = String.valueOf(random.nextInt(500));
+                    if (random.nextInt(4) == 0) {
+                        store.delete(id);
+                    } else {
+                        upsert(id, "v" + i);
+                    }
+                }
+            });
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        writing.set(false);
+        poller.get();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        StoreDelta<TestEntity> snapshot = store.changesSince(0);
+        assertEquals(snapshot.updated().size(), replica.size());
+        snapshot.updated().forEach(e -> assertEquals(e.getDataVersion(), replica.get(e.getId()).getDataVersion()));
+    }
+}
@@ -3,7 +3,14 @@ package org.tom.nettapoc.generic;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -209,4 +216,386 @@ class VersionedCacheTest {
         CacheDelta<TestEntity, Integer> delta = cache.getDelta(0);
         assertEquals("B", cache.getById("1").getValue());
     }
+
+    private VersionedCache<TestEntity, Integer> projectingCache(Set<String> columnarFields) {
+        return new VersionedCache<>(null, TestEntity.class, columnarFields);
+    }
+
+    @Test
+    void testProjectedDeltaReadsFieldFromEntity() {
+        VersionedCache<TestEntity, Integer> projecting = projectingCache(Set.of());
+        projecting.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 5)), List.of("2"), 5));
+
+        ProjectedDelta<Integer> delta = projecting.getDelta(0, Set.of("value"));
+        assertEquals(5, delta.nextDataVersion());
+        assertEquals(List.of(Map.of("id", "1", "dataVersion", 5, "value", "A")), delta.data());
+        assertEquals(List.of("2"), delta.deleted());
+    }
+
+    @Test
+    void testProjectedDeltaServedFromColumns() {
+        VersionedCache<TestEntity, Integer> columnar = projectingCache(Set.of("value"));
+        columnar.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 5)), null, 5));
+        columnar.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "B", 6)), null, 6));
+
+        ProjectedDelta<Integer> delta = columnar.getDelta(0, Set.of("value"));
+        assertEquals(1, delta.data().size());
+        assertEquals("B", delta.data().get(0).get("value"));
+        assertEquals(6, delta.data().get(0).get("dataVersion"));
+    }
+
+    @Test
+    void testProjectedDeltaDropsDeletedFromColumns() {
+        VersionedCache<TestEntity, Integer> columnar = projectingCache(Set.of("value"));
+        columnar.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 5)), null, 5));
+        columnar.applyDeltaToCache(deltaWithData(null, List.of("1"), 6));
+
+        ProjectedDelta<Integer> delta = columnar.getDelta(0, Set.of("value"));
+        assertTrue(delta.data().isEmpty());
+        assertEquals(List.of("1"), delta.deleted());
+    }
+
+    @Test
+    void testProjectedDeltaKeepsCanonicalIdAndVersion() {
+        VersionedCache<TestEntity, Integer> projecting = projectingCache(Set.of("value"));
+        projecting.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 5)), null, 5));
+
+        ProjectedDelta<Integer> delta = projecting.getDelta(0, Set.of("id", "dataVersion", "value"));
+        assertEquals(List.of(Map.of("id", "1", "dataVersion", 5, "value", "A")), delta.data());
+    }
+
+    @Test
+    void testProjectedDeltaUnknownFieldThrows() {
+        VersionedCache<TestEntity, Integer> projecting = projectingCache(Set.of());
+        assertThrows(IllegalArgumentException.class, () -> projecting.getDelta(0, Set.of("missing")));
+
+        projecting.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 5)), null, 5));
+        assertThrows(IllegalArgumentException.class, () -> projecting.getDelta(0, Set.of("missing")));
+    }
+
+    @Test
+    void testProjectionsRequireEntityType() {
+        assertThrows(IllegalStateException.class, () -> cache.getDelta(0, Set.of("value")));
+        assertThrows(IllegalStateException.class,
+                () -> VersionedCache.<TestEntity, Integer>builder().columnarFields(Set.of("value")).build());
+    }
+
+    @Test
+    void testUnknownColumnarFieldRejectedAtConstruction() {
+        assertThrows(IllegalArgumentException.class, () -> projectingCache(Set.of("valeu")));
+    }
+
+    @Test
+    void testBoundedCacheKeepsDeltaCompleteAfterEviction() {
+        Map<String, TestEntity> upstream = new HashMap<>();
+        VersionedCache<TestEntity, Integer> bounded = VersionedCache.<TestEntity, Integer>builder()
+                .maximumSize(2)
+                .loader(upstream::get)
+                .build();
+
+        for (int i = 1; i <= 5; i++) {
+            TestEntity entity = new TestEntity(String.valueOf(i), "V" + i, i);
+            upstream.put(entity.getId(), entity);
+            bounded.applyDeltaToCache(deltaWithData(List.of(entity), null, i));
+        }
+
+        assertTrue(bounded.getResidentEntityCount() <= 2);
+        assertEquals(5, bounded.size());
+        assertEquals(5, bounded.getDelta(0).data().size());
+        assertTrue(bounded.getStats().evictionCount() >= 3);
+    }
+
+    private VersionedCache<TestEntity, Integer> evictingCache(Map<String, TestEntity> upstream) {
+        return VersionedCache.<TestEntity, Integer>builder()
+                .maximumWeight(0, entity -> 1)
+                .loader(upstream::get)
+                .build();
+    }
+
+    @Test
+    void testBoundedCacheGetByIdFallsBackToLoader() {
+        Map<String, TestEntity> upstream = new HashMap<>();
+        VersionedCache<TestEntity, Integer> bounded = evictingCache(upstream);
+
+        TestEntity entity = new TestEntity("1", "A", 1);
+        upstream.put("1", entity);
+        bounded.applyDeltaToCache(deltaWithData(List.of(entity), null, 1));
+
+        assertEquals("A", bounded.getById("1").getValue());
+        assertNull(bounded.getById("unknown"));
+        assertTrue(bounded.getStats().loadCount() >= 1);
+    }
+
+    @Test
+    void testBoundedCacheServesNewerAndSkipsMissingBodies() {
+        Map<String, TestEntity> upstream = new HashMap<>();
+        VersionedCache<TestEntity, Integer> bounded = evictingCache(upstream);
+        bounded.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1), new TestEntity("2", "X", 1)), null, 1));
+        upstream.put("2", new TestEntity("2", "X", 1));
+
+        assertEquals(List.of("2"), bounded.getDelta(0).data().stream().map(TestEntity::getId).toList());
+        assertNull(bounded.getById("1"));
+        assertEquals(2, bounded.getStats().loadFailureCount());
+
+        upstream.put("1", new TestEntity("1", "B", 2));
+        assertEquals("B", bounded.getById("1").getValue());
+        assertEquals(Set.of("B", "X"), bounded.getDelta(0).data().stream().map(TestEntity::getValue).collect(Collectors.toSet()));
+        assertEquals(2, bounded.getById("1").getDataVersion());
+    }
+
+    @Test
+    void testBoundedCacheLoadsOutsideTheLockInOneBatch() {
+        List<Set<String>> batches = new ArrayList<>();
+        AtomicReference<VersionedCache<TestEntity, Integer>> self = new AtomicReference<>();
+        AtomicBoolean writerFinished = new AtomicBoolean();
+        VersionedCache<TestEntity, Integer> bounded = VersionedCache.<TestEntity, Integer>builder()
+                .maximumWeight(0, entity -> 1)
+                .batchLoader(ids -> {
+                    batches.add(Set.copyOf(ids));
+                    Thread writer = new Thread(() ->
+                            self.get().applyDeltaToCache(deltaWithData(List.of(new TestEntity("3", "C", 3)), null, 3)));
+                    writer.start();
+                    try {
+                        writer.join(5_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    writerFinished.set(!writer.isAlive());
+                    return ids.stream().collect(Collectors.toMap(id -> id, id -> new TestEntity(id, "V" + id, 1)));
+                })
+                .build();
+        self.set(bounded);
+        bounded.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "V1", 1), new TestEntity("2", "V2", 1)), null, 1));
+
+        assertEquals(2, bounded.getDelta(0).data().size());
+        assertEquals(List.of(Set.of("1", "2")), batches);
+        assertTrue(writerFinished.get(), "Writer was blocked while the loader ran");
+        assertEquals(3, bounded.getCurrentVersion());
+    }
+
+    @Test
+    void testBoundedCacheStatsCountLookupsOnly() {
+        Map<String, TestEntity> upstream = new HashMap<>();
+        VersionedCache<TestEntity, Integer> bounded = evictingCache(upstream);
+
+        TestEntity entity = new TestEntity("1", "A", 1);
+        upstream.put("1", entity);
+        bounded.applyDeltaToCache(deltaWithData(List.of(entity), null, 1));
+
+        bounded.getDelta(0);
+        assertEquals(0, bounded.getStats().hitCount() + bounded.getStats().missCount());
+        assertEquals(1, bounded.getStats().loadCount());
+
+        bounded.getById("1");
+        bounded.getById("1");
+        assertEquals(2, bounded.getStats().missCount());
+        assertEquals(3, bounded.getStats().loadCount());
+    }
+
+    @Test
+    void testBoundedCacheRequiresLoader() {
+        assertThrows(IllegalStateException.class,
+                () -> VersionedCache.<TestEntity, Integer>builder().maximumSize(10).build());
+    }
+
+    private VersionedCache<TestEntity, Integer> historyCache(int retainedCommits) {
+        return VersionedCache.<TestEntity, Integer>builder().history(retainedCommits).build();
+    }
+
+    @Test
+    void testGetByIdAsOfPastVersion() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(10);
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1)), null, 1));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "B", 3)), null, 3));
+        versioned.applyDeltaToCache(deltaWithData(null, List.of("1"), 5));
+
+        assertNull(versioned.getById("1", 0));
+        assertEquals("A", versioned.getById("1", 2).getValue());
+        assertEquals("B", versioned.getById("1", 4).getValue());
+        assertNull(versioned.getById("1", 5));
+        assertNull(versioned.getById("1"));
+    }
+
+    @Test
+    void testGetDeltaClosedRange() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(10);
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1), new TestEntity("2", "X", 1)), null, 1));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "B", 3)), null, 3));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("3", "Y", 4)), List.of("2"), 4));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "C", 6)), null, 6));
+
+        CacheDelta<TestEntity, Integer> delta = versioned.getDelta(2, 4);
+        assertEquals(4, delta.nextDataVersion());
+        assertEquals(2, delta.data().size());
+        assertTrue(delta.data().stream().anyMatch(e -> e.getValue().equals("B")));
+        assertTrue(delta.data().stream().anyMatch(e -> e.getValue().equals("Y")));
+        assertEquals(List.of("2"), delta.deleted());
+    }
+
+    @Test
+    void testGetDeltaBeyondCurrentVersionThrows() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(10);
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1)), null, 1));
+        assertThrows(IllegalArgumentException.class, () -> versioned.getDelta(0, 2));
+    }
+
+    @Test
+    void testHistoryRetentionCollectsOldRevisions() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(2);
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1), new TestEntity("2", "X", 1)), null, 1));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "B", 2)), null, 2));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "C", 3)), null, 3));
+
+        assertEquals(2, versioned.getHistoryFloor());
+        assertThrows(IllegalArgumentException.class, () -> versioned.getById("1", 1));
+        assertEquals("B", versioned.getById("1", 2).getValue());
+        assertEquals("X", versioned.getById("2", 2).getValue());
+        assertEquals(List.of("C"), versioned.getDelta(3, 3).data().stream().map(TestEntity::getValue).toList());
+    }
+
+    @Test
+    void testHistoryRetainsOnlyIdsChangedInWindow() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(2);
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1), new TestEntity("2", "X", 1)), List.of("3"), 1));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("4", "P", 2)), null, 2));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("4", "Q", 3)), null, 3));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("4", "R", 4)), null, 4));
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "B", 5)), null, 5));
+
+        assertEquals(4, versioned.getHistoryFloor());
+        // Unchanged since before the floor: answered from the live store.
+        assertEquals("X", versioned.getById("2", 4).getValue());
+        assertNull(versioned.getById("3", 4));
+        // Changed inside the window: its state before the change is the recorded base.
+        assertEquals("A", versioned.getById("1", 4).getValue());
+        assertEquals("B", versioned.getById("1", 5).getValue());
+        assertEquals("R", versioned.getById("4", 4).getValue());
+    }
+
+    @Test
+    void testGetByIdAsOfBeyondCurrentVersionThrows() {
+        VersionedCache<TestEntity, Integer> versioned = historyCache(10);
+        assertThrows(IllegalArgumentException.class, () -> versioned.getById("1", 0));
+
+        versioned.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1)), null, 1));
+        assertThrows(IllegalArgumentException.class, () -> versioned.getById("1", 2));
+    }
+
+    @Test
+    void testHistoryRejectsBoundedCache() {
+        assertThrows(IllegalStateException.class, () -> VersionedCache.<TestEntity, Integer>builder()
+                .maximumSize(10).loader(id -> null).history(2).build());
+    }
+
+    @Test
+    void testAsOfQueriesRequireHistory() {
+        assertThrows(IllegalStateException.class, () -> cache.getById("1", 1));
+        assertThrows(IllegalStateException.class, () -> cache.getDelta(0, 1));
+    }
+
+    @Test
+    void testRepairedUpdateIsVisiblePastReaderCursor() {
+        cache.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1), new TestEntity("2", "stale", 2)), null, 5));
+        cache.applyDeltaToCache(deltaWithData(List.of(new TestEntity("3", "C", 10)), null, 10));
+        Integer readerCursor = cache.getCurrentVersion();
+
+        cache.repairRange(2, 4, List.of(new TestEntity("2", "repaired", 3)));
+
+        assertEquals(List.of("C", "repaired"), cache.getDelta(readerCursor).data().stream().map(TestEntity::getValue).toList());
+        assertEquals(3, cache.getById("2").getDataVersion());
+        assertEquals(1, cache.getDigest(3, 4).count());
+        assertTrue(cache.getDelta(11).data().isEmpty());
+    }
+
+    @Test
+    void testRepairSkipsEntitiesAlreadyAtUpstreamVersion() {
+        cache.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 1)), null, 5));
+
+        cache.repairRange(null, null, List.of(new TestEntity("1", "A", 1)));
+
+        assertTrue(cache.getDelta(5).data().isEmpty());
+    }
+
+    private VersionedCache<TestEntity, Integer> reorderingCache() {
+        return VersionedCache.<TestEntity, Integer>builder().initialVersion(0).reorderBuffer(true).build();
+    }
+
+    @Test
+    void testReorderBufferAdvancesOnlyWhenContiguous() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+
+        reordering.applyDeltaToCache(10, deltaWithData(List.of(new TestEntity("3", "C", 12)), null, 15));
+        assertEquals(0, reordering.getCurrentVersion());
+        assertEquals(1, reordering.getPendingDeltaCount());
+        assertEquals("C", reordering.getById("3").getValue());
+
+        reordering.applyDeltaToCache(0, deltaWithData(List.of(new TestEntity("1", "A", 3)), null, 5));
+        assertEquals(5, reordering.getCurrentVersion());
+
+        reordering.applyDeltaToCache(5, deltaWithData(List.of(new TestEntity("2", "B", 7)), null, 10));
+        assertEquals(15, reordering.getCurrentVersion());
+        assertEquals(0, reordering.getPendingDeltaCount());
+        assertEquals(3, reordering.getDelta(0).data().size());
+    }
+
+    @Test
+    void testReorderBufferKeepsNewestVersionPerId() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+
+        reordering.applyDeltaToCache(10, deltaWithData(List.of(new TestEntity("1", "new", 12)), null, 15));
+        reordering.applyDeltaToCache(0, deltaWithData(List.of(new TestEntity("1", "old", 3)), null, 10));
+
+        assertEquals("new", reordering.getById("1").getValue());
+        assertEquals(15, reordering.getCurrentVersion());
+    }
+
+    @Test
+    void testReorderBufferIgnoresLateDeleteOfNewerEntity() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+
+        reordering.applyDeltaToCache(10, deltaWithData(List.of(new TestEntity("1", "re-added", 12)), null, 15));
+        reordering.applyDeltaToCache(0, deltaWithData(null, List.of("1"), 10));
+
+        assertEquals("re-added", reordering.getById("1").getValue());
+        assertTrue(reordering.getDelta(0).deleted().isEmpty());
+    }
+
+    @Test
+    void testReorderBufferAppliesLateEntityBeforeNewerDelete() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+
+        reordering.applyDeltaToCache(10, deltaWithData(null, List.of("1"), 15));
+        reordering.applyDeltaToCache(0, deltaWithData(List.of(new TestEntity("1", "A", 4)), null, 10));
+
+        assertNull(reordering.getById("1"));
+        assertEquals(List.of("1"), reordering.getDelta(0).deleted());
+    }
+
+    @Test
+    void testReorderBufferAcceptsDuplicateDelta() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+        CacheDelta<TestEntity, Integer> delta = deltaWithData(List.of(new TestEntity("1", "A", 4)), null, 5);
+
+        reordering.applyDeltaToCache(0, delta);
+        reordering.applyDeltaToCache(0, delta);
+
+        assertEquals(5, reordering.getCurrentVersion());
+        assertEquals(1, reordering.getDelta(0).data().size());
+    }
+
+    @Test
+    void testReorderBufferRequiresFromVersion() {
+        VersionedCache<TestEntity, Integer> reordering = reorderingCache();
+
+        assertThrows(IllegalStateException.class,
+                () -> reordering.applyDeltaToCache(deltaWithData(List.of(new TestEntity("1", "A", 4)), null, 5)));
+        assertEquals(0, reordering.getCurrentVersion());
+        assertNull(reordering.getById("1"));
+    }
+
+    @Test
+    void testReorderBufferRequiresInitialVersion() {
+        assertThrows(IllegalStateException.class,
+                () -> VersionedCache.<TestEntity, Integer>builder().reorderBuffer(true).build());
+    }
 }
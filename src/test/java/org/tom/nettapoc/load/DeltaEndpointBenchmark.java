@@ -0,0 +1,201 @@
+package org.tom.nettapoc.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.tom.nettapoc.NettaPocApplication;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Polls /persons and /houses from many concurrent connections and compares serving modes.
+ * <p>
+ * For every mode in {@code --modes} (platform, virtual) the application is booted in-process on a
+ * random port, with the workload generator running, and hammered for {@code --seconds}. Each
+ * connection follows its own cursor like a sync client, re-fetching the full delta with probability
+ * {@code --full-fetch-ratio} to emulate slow clients on large responses. Pass {@code --url} to target
+ * an already running server.
+ */
+public class DeltaEndpointBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record Endpoint(String path, String versionParam, String initialVersion) {}
+
+    private static final List<Endpoint> ENDPOINTS = List.of(
+            new Endpoint("/persons", "dataVersionStr", "1970-01-01T00:00:00Z"),
+            new Endpoint("/houses", "dataVersion", "0"));
+
+    private record Options(List<String> modes, String url, int connections, int seconds,
+                           double fullFetchRatio, long personCount, double changesPerSecond) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                values.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+            }
+            return new Options(
+                    List.of(values.getOrDefault("modes", "platform,virtual").split(",")),
+                    values.get("url"),
+                    Integer.parseInt(values.getOrDefault("connections", "1000")),
+                    Integer.parseInt(values.getOrDefault("seconds", "20")),
+                    Double.parseDouble(values.getOrDefault("full-fetch-ratio", "0.01")),
+                    Long.parseLong(values.getOrDefault("person-count", "100000")),
+                    Double.parseDouble(values.getOrDefault("changes-per-second", "1000")));
+        }
+    }
+
+    private static final class ConnectionStats {
+        long requests;
+        long notModified;
+        long errors;
+        long bytes;
+        long[] latencies = new long[1024];
+
+        void record(long latencyNanos) {
+            if (requests == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[(int) requests++] = latencyNanos;
+        }
+    }
+
+    private record Result(String mode, long requests, long notModified, long errors, long bytes,
+                          Duration elapsed, Duration p50, Duration p99) {}
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        List<Result> results = new ArrayList<>();
+
+        if (options.url() != null) {
+            results.add(run("external", options.url(), options));
+        } else {
+            for (String mode : options.modes()) {
+                try (ConfigurableApplicationContext context = start(mode, options)) {
+                    String port = context.getEnvironment().getProperty("local.server.port");
+                    results.add(run(mode, "http://localhost:" + port, options));
+                }
+            }
+        }
+
+        System.out.printf("%-10s %10s %10s %8s %8s %10s %9s %9s%n",
+                "mode", "requests", "req/s", "304s", "errors", "MB", "p50 ms", "p99 ms");
+        for (Result r : results) {
+            System.out.printf("%-10s %10d %10.0f %8d %8d %10.1f %9.2f %9.2f%n",
+                    r.mode(), r.requests(), r.requests() * 1000.0 / r.elapsed().toMillis(), r.notModified(),
+                    r.errors(), r.bytes() / 1_048_576.0, r.p50().toNanos() / 1e6, r.p99().toNanos() / 1e6);
+        }
+    }
+
+    private static ConfigurableApplicationContext start(String mode, Options options) {
+        if (!mode.equals("platform") && !mode.equals("virtual")) {
+            throw new IllegalArgumentException("Unknown mode " + mode + ", expected platform or virtual");
+        }
+
+        return new SpringApplicationBuilder(NettaPocApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.threads.virtual.enabled=" + mode.equals("virtual"),
+                        "workload.person-count=" + options.personCount(),
+                        "workload.changes-per-second=" + options.changesPerSecond(),
+                        "workload.tick-millis=100",
+                        "logging.level.root=WARN")
+                .run();
+    }
+
+    private static Result run(String mode, String baseUrl, Options options)
+            throws InterruptedException, ExecutionException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        long start = System.nanoTime();
+        long deadline = start + Duration.ofSeconds(options.seconds()).toNanos();
+
+        List<ConnectionStats> stats = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ConnectionStats>> connections = new ArrayList<>();
+            for (int i = 0; i < options.connections(); i++) {
+                Endpoint endpoint = ENDPOINTS.get(i % ENDPOINTS.size());
+                Random random = new Random(i);
+                connections.add(executor.submit(() -> poll(client, baseUrl, endpoint, random, deadline, options)));
+            }
+            for (Future<ConnectionStats> connection : connections) {
+                stats.add(connection.get());
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        long[] latencies = stats.stream()
+                .flatMapToLong(s -> Arrays.stream(s.latencies, 0, (int) s.requests))
+                .sorted()
+                .toArray();
+        return new Result(mode,
+                latencies.length,
+                stats.stream().mapToLong(s -> s.notModified).sum(),
+                stats.stream().mapToLong(s -> s.errors).sum(),
+                stats.stream().mapToLong(s -> s.bytes).sum(),
+                elapsed,
+                percentile(latencies, 0.50),
+                percentile(latencies, 0.99));
+    }
+
+    private static ConnectionStats poll(HttpClient client, String baseUrl, Endpoint endpoint, Random random,
+                                        long deadline, Options options) throws InterruptedException {
+        ConnectionStats stats = new ConnectionStats();
+        String cursor = endpoint.initialVersion();
+        String eTag = null;
+
+        while (System.nanoTime() < deadline) {
+            if (random.nextDouble() < options.fullFetchRatio()) {
+                cursor = endpoint.initialVersion();
+                eTag = null;
+            }
+
+            URI uri = URI.create(baseUrl + endpoint.path() + "?" + endpoint.versionParam() + "="
+                    + URLEncoder.encode(cursor, StandardCharsets.UTF_8));
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).GET();
+            if (eTag != null) {
+                request.header("If-None-Match", eTag);
+            }
+
+            long requestStart = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+                stats.record(System.nanoTime() - requestStart);
+
+                if (response.statusCode() == 304) {
+                    stats.notModified++;
+                } else if (response.statusCode() == 200) {
+                    stats.bytes += response.body().length;
+                    cursor = MAPPER.readTree(response.body()).get("nextDataVersion").asText();
+                    eTag = response.headers().firstValue("ETag").orElse(null);
+                } else {
+                    stats.errors++;
+                }
+            } catch (IOException e) {
+                stats.record(System.nanoTime() - requestStart);
+                stats.errors++;
+            }
+        }
+        return stats;
+    }
+
+    private static Duration percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Duration.ZERO;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(0, index)]);
+    }
+}
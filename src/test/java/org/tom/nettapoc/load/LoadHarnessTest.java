@@ -0,0 +1,74 @@
+package org.tom.nettapoc.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.tom.nettapoc.generic.VersionedCache;
+import org.tom.nettapoc.generic.VersionedSyncClient;
+import org.tom.nettapoc.house.House;
+import org.tom.nettapoc.house.StatefulHouseController;
+import org.tom.nettapoc.person.Person;
+import org.tom.nettapoc.person.StatefulPersonController;
+import org.tom.nettapoc.web.DeltaResponseCache;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadHarnessTest {
+
+    private static final String EPOCH = "1970-01-01T00:00:00Z";
+
+    private final WorkloadProperties properties =
+            new WorkloadProperties(false, 5_000, 500, 20_000, 0.99, 0.2, 10, 42L);
+
+    private final DeltaResponseCache responseCache = new DeltaResponseCache(new ObjectMapper(), 16, 1 << 20);
+
+    @Test
+    void testClientsConvergeToUpstream() {
+        StatefulPersonController persons = new StatefulPersonController(properties, responseCache);
+        StatefulHouseController houses = new StatefulHouseController(properties, responseCache);
+        VersionedSyncClient<Person, String> personClient =
+                new VersionedSyncClient<>(persons, new VersionedCache<>(), EPOCH);
+        VersionedSyncClient<House, Integer> houseClient =
+                new VersionedSyncClient<>(houses, new VersionedCache<>(), 0);
+
+        WorkloadGenerator generator = new WorkloadGenerator(properties, List.of(persons, houses));
+        LoadReport report = new LoadHarness(generator, List.of(personClient, houseClient)).run(50);
+
+        assertEquals(generator.getUpserts() + generator.getDeletes(), report.changes());
+        assertTrue(report.changes() <= 10_000);
+        assertEquals(100, report.syncs());
+
+        List<Person> upstreamPersons = persons.fetchUpdates(EPOCH).data();
+        assertEquals(upstreamPersons.size(), personClient.getCache().size());
+        upstreamPersons.forEach(p ->
+                assertEquals(p.getDataVersion(), personClient.getCache().getById(p.getId()).getDataVersion()));
+
+        List<House> upstreamHouses = houses.fetchUpdates(0).data();
+        assertEquals(upstreamHouses.size(), houseClient.getCache().size());
+        upstreamHouses.forEach(h ->
+                assertEquals(h.getDataVersion(), houseClient.getCache().getById(h.getId()).getDataVersion()));
+    }
+
+    @Test
+    void testDeletesOfDeletedKeysAreNotCounted() {
+        WorkloadProperties deleteOnly = new WorkloadProperties(false, 1, 1, 1_000, 0.99, 1.0, 10, 42L);
+        StatefulPersonController persons = new StatefulPersonController(deleteOnly, responseCache);
+        WorkloadGenerator generator = new WorkloadGenerator(deleteOnly, List.of(persons));
+
+        assertEquals(1, generator.tick());
+        assertEquals(0, generator.tick());
+        assertEquals(1, generator.getDeletes());
+    }
+
+    @Test
+    void testRunIsRepeatableForSameSeed() {
+        assertEquals(runOnce().entitiesSynced(), runOnce().entitiesSynced());
+    }
+
+    private LoadReport runOnce() {
+        StatefulPersonController persons = new StatefulPersonController(properties, responseCache);
+        VersionedSyncClient<Person, String> client = new VersionedSyncClient<>(persons, new VersionedCache<>(), EPOCH);
+        return new LoadHarness(new WorkloadGenerator(properties, List.of(persons)), List.of(client)).run(20);
+    }
+}
@@ -0,0 +1,158 @@
+package org.tom.nettapoc.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.tom.nettapoc.generic.CacheDelta;
+import org.tom.nettapoc.generic.TestEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaResponseCacheTest {
+
+    private DeltaResponseCache responseCache;
+    private AtomicInteger computations;
+
+    @BeforeEach
+    void setUp() {
+        responseCache = new DeltaResponseCache(new ObjectMapper(), 16, 1 << 20);
+        computations = new AtomicInteger();
+    }
+
+    private Supplier<CacheDelta<TestEntity, Integer>> countingDelta(int version) {
+        return () -> {
+            computations.incrementAndGet();
+            return new CacheDelta<>(List.of(new TestEntity("1", "A", version)), List.of(), version);
+        };
+    }
+
+    @Test
+    void testSameCursorComputedOnce() {
+        ResponseEntity<byte[]> first = responseCache.respond("test", 0, 5, null, countingDelta(5));
+        ResponseEntity<byte[]> second = responseCache.respond("test", 0, 5, null, countingDelta(5));
+
+        assertEquals(1, computations.get());
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertSame(first.getBody(), second.getBody());
+        assertEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+    }
+
+    @Test
+    void testVersionAdvanceRecomputes() {
+        ResponseEntity<byte[]> before = responseCache.respond("test", 0, 5, null, countingDelta(5));
+        ResponseEntity<byte[]> after = responseCache.respond("test", 0, 6, null, countingDelta(6));
+
+        assertEquals(2, computations.get());
+        assertNotEquals(before.getHeaders().getETag(), after.getHeaders().getETag());
+    }
+
+    @Test
+    void testMatchingETagReturnsNotModifiedWithoutComputing() {
+        String eTag = responseCache.respond("test", 0, 5, null, countingDelta(5)).getHeaders().getETag();
+
+        ResponseEntity<byte[]> response = responseCache.respond("test", 0, 5, eTag, countingDelta(5));
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertNull(response.getBody());
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    void testStaleETagReturnsFreshBody() {
+        String eTag = responseCache.respond("test", 0, 5, null, countingDelta(5)).getHeaders().getETag();
+
+        ResponseEntity<byte[]> response = responseCache.respond("test", 0, 6, eTag, countingDelta(6));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getBody());
+    }
+
+    @Test
+    void testEndpointsDoNotShareEntries() {
+        responseCache.respond("a", 0, 5, null, countingDelta(5));
+        responseCache.respond("b", 0, 5, null, countingDelta(5));
+
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    void testConcurrentRequestsOnVirtualThreadsShareOneComputation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<CacheDelta<TestEntity, Integer>> slowDelta = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return countingDelta(5).get();
+        };
+
+        List<Future<ResponseEntity<byte[]>>> responses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 100; i++) {
+                responses.add(executor.submit(() -> responseCache.respond("test", 0, 5, null, slowDelta)));
+            }
+            Thread.sleep(50);
+            release.countDown();
+
+            byte[] body = responses.get(0).get().getBody();
+            for (Future<ResponseEntity<byte[]>> response : responses) {
+                assertSame(body, response.get().getBody());
+            }
+        }
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    void testFailedComputationIsNotCached() {
+        Supplier<Object> failing = () -> {
+            throw new IllegalStateException("upstream unavailable");
+        };
+
+        assertThrows(IllegalStateException.class, () -> responseCache.respond("test", 0, 5, null, failing));
+        assertEquals(HttpStatus.OK, responseCache.respond("test", 0, 5, null, countingDelta(5)).getStatusCode());
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    void testResponsesBeyondByteBudgetAreServedUncached() {
+        DeltaResponseCache small = new DeltaResponseCache(new ObjectMapper(), 16, 1);
+
+        small.respond("test", 0, 5, null, countingDelta(5));
+        small.respond("test", 0, 5, null, countingDelta(5));
+
+        assertEquals(2, computations.get());
+        assertEquals(0, small.getCachedBytes());
+    }
+
+    @Test
+    void testVersionAdvanceReleasesBytes() {
+        responseCache.respond("test", 0, 5, null, countingDelta(5));
+        long cached = responseCache.getCachedBytes();
+        assertTrue(cached > 0);
+
+        responseCache.respond("test", 0, 6, null, countingDelta(6));
+
+        assertEquals(cached, responseCache.getCachedBytes());
+    }
+
+    @Test
+    void testNonNumericCursors() {
+        ResponseEntity<byte[]> first = responseCache.respond("test", "1970-01-01T00:00:00Z", "1970-01-01T00:00:05Z", null, countingDelta(5));
+        ResponseEntity<byte[]> second = responseCache.respond("test", "1970-01-01T00:00:00Z", "1970-01-01T00:00:05Z", null, countingDelta(5));
+
+        assertSame(first.getBody(), second.getBody());
+        assertEquals(1, computations.get());
+    }
+}